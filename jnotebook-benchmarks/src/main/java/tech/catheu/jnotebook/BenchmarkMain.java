@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH command line, with results written in the JSON format to jmh-result.json by
+ * default. Pass -rf and -rff to change the format and the file.
+ */
+public class BenchmarkMain {
+
+  private static final String RESULT_FORMAT_OPTION = "-rf";
+  private static final String RESULT_FILE_OPTION = "-rff";
+  private static final String DEFAULT_RESULT_FORMAT = "json";
+  private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(final String[] args) throws Exception {
+    final List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+    if (!jmhArgs.contains(RESULT_FORMAT_OPTION)) {
+      jmhArgs.add(RESULT_FORMAT_OPTION);
+      jmhArgs.add(DEFAULT_RESULT_FORMAT);
+    }
+    if (!jmhArgs.contains(RESULT_FILE_OPTION)) {
+      jmhArgs.add(RESULT_FILE_OPTION);
+      jmhArgs.add(DEFAULT_RESULT_FILE);
+    }
+    org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+  }
+}
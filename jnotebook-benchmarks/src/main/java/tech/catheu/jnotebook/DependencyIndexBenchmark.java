@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import org.openjdk.jmh.annotations.*;
+import tech.catheu.jnotebook.evaluate.DependencyIndex;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the computation of the snippets to run again on a synthetic notebook where each cell
+ * depends on the previous one: an edit of the first cell invalidates the whole chain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@SuppressWarnings("UnstableApiUsage")
+public class DependencyIndexBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Chain {
+    @Param({"5000"})
+    public int cells;
+
+    private MutableGraph<String> graph;
+    private DependencyIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      graph = GraphBuilder.directed().allowsSelfLoops(false).build();
+      graph.addNode("v0");
+      for (int i = 1; i < cells; i++) {
+        graph.putEdge("v" + (i - 1), "v" + i);
+      }
+      index = index(graph);
+    }
+  }
+
+  @Benchmark
+  public DependencyIndex buildIndex(final Chain chain) {
+    return index(chain.graph);
+  }
+
+  @Benchmark
+  public BitSet invalidateFirstCell(final Chain chain) {
+    final BitSet snippetsIdxToRun = new BitSet(chain.cells);
+    chain.index.invalidate(0, new BitSet(chain.cells), snippetsIdxToRun);
+    return snippetsIdxToRun;
+  }
+
+  /**
+   * An edit of every cell: each invalidation stops at the cells already invalidated.
+   */
+  @Benchmark
+  public BitSet invalidateEveryCell(final Chain chain) {
+    final BitSet invalidated = new BitSet(chain.cells);
+    final BitSet snippetsIdxToRun = new BitSet(chain.cells);
+    for (int node = chain.cells - 1; node >= 0; node--) {
+      chain.index.invalidate(node, invalidated, snippetsIdxToRun);
+    }
+    return snippetsIdxToRun;
+  }
+
+  private static DependencyIndex index(final MutableGraph<String> graph) {
+    return DependencyIndex.of(graph, name -> Integer.parseInt(name.substring(1)), name -> Set.of());
+  }
+}
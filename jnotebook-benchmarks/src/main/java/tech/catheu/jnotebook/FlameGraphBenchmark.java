@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a jfr recording into the d3 flame graph format.
+ * By default, a sample recording is generated during the setup. To benchmark a real profile, pass
+ * {@code -Djnotebook.bench.jfr=/path/to/recording.jfr}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlameGraphBenchmark {
+
+  private static final String JFR_PATH_PROPERTY = "jnotebook.bench.jfr";
+  private static final int RECORDING_THREADS = 4;
+  private static final long RECORDING_DURATION_MS = 10_000;
+
+  private static volatile long sink;
+
+  private Path recording;
+  private boolean generated;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, ParseException, InterruptedException {
+    final String providedPath = System.getProperty(JFR_PATH_PROPERTY);
+    if (providedPath != null) {
+      recording = Path.of(providedPath);
+      generated = false;
+    } else {
+      recording = Files.createTempFile("jnotebook-flamegraph-bench", ".jfr");
+      generated = true;
+      recordSample(recording);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (generated) {
+      Files.deleteIfExists(recording);
+    }
+  }
+
+  @Benchmark
+  public void flameGraphD3(final Blackhole blackhole) {
+    blackhole.consume(FlameGraph.flameGraphD3(recording));
+  }
+
+  private static void recordSample(final Path destination) throws IOException, ParseException, InterruptedException {
+    try (final Recording sampleRecording = new Recording(Configuration.getConfiguration("profile"))) {
+      sampleRecording.start();
+      final List<Thread> threads = new ArrayList<>();
+      final long end = System.currentTimeMillis() + RECORDING_DURATION_MS;
+      for (int i = 0; i < RECORDING_THREADS; i++) {
+        final int seed = i;
+        final Thread thread = new Thread(() -> {
+          long res = 0;
+          while (System.currentTimeMillis() < end) {
+            res += recursiveWork(seed + 6, seed);
+          }
+          sink = res;
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (final Thread thread : threads) {
+        thread.join();
+      }
+      sampleRecording.stop();
+      sampleRecording.dump(destination);
+    }
+  }
+
+  // produces stacks of varying depth and shape
+  private static long recursiveWork(final int depth, final int branch) {
+    if (depth == 0) {
+      return Integer.toString(branch).hashCode();
+    }
+    if ((depth + branch) % 3 == 0) {
+      return leftWork(depth - 1, branch) + 1;
+    }
+    return rightWork(depth - 1, branch) - 1;
+  }
+
+  private static long leftWork(final int depth, final int branch) {
+    return recursiveWork(depth, branch + 1);
+  }
+
+  private static long rightWork(final int depth, final int branch) {
+    long res = 0;
+    for (int i = 0; i < 4; i++) {
+      res += recursiveWork(depth, branch + i);
+    }
+    return res;
+  }
+}
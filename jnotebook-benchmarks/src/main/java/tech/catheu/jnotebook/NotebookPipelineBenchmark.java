@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import tech.catheu.jnotebook.assets.Asset;
+import tech.catheu.jnotebook.evaluate.GreedyInterpreter;
+import tech.catheu.jnotebook.evaluate.Interpreted;
+import tech.catheu.jnotebook.jshell.ShellProvider;
+import tech.catheu.jnotebook.parse.StaticParser;
+import tech.catheu.jnotebook.parse.StaticParsing;
+import tech.catheu.jnotebook.render.Renderer;
+import tech.catheu.jnotebook.render.Rendering;
+import tech.catheu.jnotebook.server.HtmlTemplateEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of the notebook pipeline on synthetic notebooks: static parsing,
+ * interpretation of a new notebook (cold) and of an edit (warm), rendering of the cells and of
+ * the page.
+ * A synthetic notebook cycles through markdown comments, variable declarations, method
+ * declarations and method calls. A declaration-heavy notebook is made of method and record
+ * declarations: it measures the time to the first render of a notebook of helpers. Cold
+ * interpretations of large notebooks take minutes: select the sizes with
+ * {@code -p cells=10,100}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NotebookPipelineBenchmark {
+
+  private static final Path NOTEBOOK_PATH = Path.of("synthetic.jsh");
+
+  @State(Scope.Benchmark)
+  public static class Notebook {
+    @Param({"10", "100", "1000", "5000"})
+    public int cells;
+
+    private Path localStorage;
+    private Main.SharedConfiguration configuration;
+    private ShellProvider shellProvider;
+    private StaticParser parser;
+    private List<String> lines;
+    private StaticParsing parsing;
+    private StaticParsing editedParsing;
+    private List<String> declarationLines;
+    private Renderer renderer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      // compiled declarations must not be served from the cache of a previous run
+      localStorage = Files.createTempDirectory("jnotebook_benchmark");
+      configuration = new Main.SharedConfiguration();
+      configuration.classPath = "";
+      configuration.noUtils = true;
+      configuration.localStoragePath = localStorage.toString();
+      shellProvider = new ShellProvider(configuration);
+      parser = new StaticParser(shellProvider);
+      lines = syntheticNotebook(cells, false);
+      parsing = parser.snippetsOf(NOTEBOOK_PATH, lines);
+      editedParsing = parser.snippetsOf(NOTEBOOK_PATH, syntheticNotebook(cells, true));
+      declarationLines = declarationNotebook(cells);
+      renderer = new Renderer(configuration);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      parser.stop();
+      FileUtils.deleteQuietly(localStorage.toFile());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ColdInterpreter {
+    private GreedyInterpreter interpreter;
+
+    // the interpretation takes longer than a millisecond: the invocation level is safe here
+    @Setup(Level.Invocation)
+    public void setup(final Notebook notebook) {
+      interpreter = new GreedyInterpreter(notebook.shellProvider);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+      interpreter.stop();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class WarmInterpreter {
+    private GreedyInterpreter interpreter;
+    private boolean edited;
+
+    @Setup(Level.Trial)
+    public void setup(final Notebook notebook) {
+      interpreter = new GreedyInterpreter(notebook.shellProvider);
+      interpreter.interpret(notebook.parsing);
+      edited = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      interpreter.stop();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Rendered {
+    private Renderer renderer;
+    private HtmlTemplateEngine templateEngine;
+    private Interpreted interpreted;
+    private Rendering rendering;
+
+    @Setup(Level.Trial)
+    public void setup(final Notebook notebook) {
+      final GreedyInterpreter interpreter = new GreedyInterpreter(notebook.shellProvider);
+      try {
+        interpreted = interpreter.interpret(notebook.parsing);
+      } finally {
+        interpreter.stop();
+      }
+      renderer = new Renderer(notebook.configuration);
+      templateEngine = new HtmlTemplateEngine();
+      rendering = renderer.render(interpreted);
+    }
+  }
+
+  @Benchmark
+  public StaticParsing parse(final Notebook notebook) {
+    return notebook.parser.snippetsOf(NOTEBOOK_PATH, notebook.lines);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  public Interpreted interpretCold(final Notebook notebook, final ColdInterpreter cold) {
+    return cold.interpreter.interpret(notebook.parsing);
+  }
+
+  /**
+   * Parses, interprets in a new shell and renders a declaration-heavy notebook: the time until the
+   * first render of the notebook is sent.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  public Rendering firstRenderDeclarations(final Notebook notebook, final ColdInterpreter cold) {
+    final StaticParsing parsing = notebook.parser.snippetsOf(NOTEBOOK_PATH,
+                                                             notebook.declarationLines);
+    return notebook.renderer.render(cold.interpreter.interpret(parsing));
+  }
+
+  /**
+   * Alternates between two versions of the notebook: each interpretation is an edit of the last
+   * variable declaration.
+   */
+  @Benchmark
+  public Interpreted interpretWarm(final Notebook notebook, final WarmInterpreter warm) {
+    warm.edited = !warm.edited;
+    return warm.interpreter.interpret(warm.edited ? notebook.editedParsing : notebook.parsing);
+  }
+
+  @Benchmark
+  public Rendering render(final Rendered rendered) {
+    return rendered.renderer.render(rendered.interpreted);
+  }
+
+  @Benchmark
+  public String renderPage(final Notebook notebook, final Rendered rendered) {
+    final HtmlTemplateEngine.TemplateData data =
+            new HtmlTemplateEngine.TemplateData(notebook.configuration,
+                                                false,
+                                                rendered.rendering.html(),
+                                                List.of(),
+                                                Asset::url);
+    return rendered.templateEngine.render(data);
+  }
+
+  /**
+   * @param edited if true, the value of the last variable declaration is changed
+   */
+  static List<String> syntheticNotebook(final int cells, final boolean edited) {
+    final int lastDeclaration = (cells - 2) / 4 * 4 + 1;
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < cells; i++) {
+      switch (i % 4) {
+        case 0 -> {
+          lines.add("// ## Section " + i);
+          lines.add("// Computes the values of section " + i + ".");
+        }
+        case 1 -> {
+          final int value = edited && i == lastDeclaration ? -i : i;
+          lines.add("int v" + i + " = " + value + ";");
+        }
+        case 2 -> {
+          lines.add("static int f" + i + "(int n) {");
+          lines.add("  return n * 2 + " + i + ";");
+          lines.add("}");
+        }
+        default -> lines.add("f" + (i - 1) + "(v" + (i - 2) + ");");
+      }
+      lines.add("");
+    }
+    return lines;
+  }
+
+  /**
+   * Methods and records, each using the previous declaration, then a use of the last one.
+   */
+  static List<String> declarationNotebook(final int cells) {
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < cells - 1; i++) {
+      if (i % 3 == 0) {
+        lines.add("record R" + i + "(int x) {");
+        lines.add("  int twice() { return x * 2; }");
+        lines.add("}");
+      } else {
+        final String previous = (i - 1) % 3 == 0 ? "new R" + (i - 1) + "(n).twice()"
+                                                 : "f" + (i - 1) + "(n)";
+        lines.add("static int f" + i + "(int n) {");
+        lines.add("  return " + previous + " + " + i + ";");
+        lines.add("}");
+      }
+      lines.add("");
+    }
+    final int last = cells - 2;
+    lines.add(last % 3 == 0 ? "new R" + last + "(1).twice();" : "f" + last + "(1);");
+    return lines;
+  }
+}
@@ -10,14 +10,20 @@ package tech.catheu.jnotebook;
 import io.methvin.watcher.DirectoryChangeEvent;
 import io.methvin.watcher.hashing.FileHash;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.observables.ConnectableObservable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tech.catheu.jnotebook.assets.AssetStore;
 import tech.catheu.jnotebook.evaluate.GreedyInterpreter;
 import tech.catheu.jnotebook.evaluate.Interpreter;
+import tech.catheu.jnotebook.file.NotebookIndex;
 import tech.catheu.jnotebook.file.PathObservables;
 import tech.catheu.jnotebook.jshell.ShellProvider;
+import tech.catheu.jnotebook.localstorage.LocalStorage;
+import tech.catheu.jnotebook.metrics.Stage;
 import tech.catheu.jnotebook.parse.StaticParser;
 import tech.catheu.jnotebook.render.Renderer;
 import tech.catheu.jnotebook.server.InteractiveServer;
@@ -41,6 +47,7 @@ public class InteractiveNotebook {
 
   private final Main.InteractiveConfiguration configuration;
   private static final String JSHELL_SUFFIX = ".jsh";
+  private final ShellProvider shellProvider;
   private final StaticParser staticParser;
   private final Interpreter interpreter;
   private final Renderer renderer;
@@ -48,7 +55,7 @@ public class InteractiveNotebook {
 
   public InteractiveNotebook(final Main.InteractiveConfiguration configuration) {
     this.configuration = configuration;
-    final ShellProvider shellProvider = new ShellProvider(configuration);
+    this.shellProvider = new ShellProvider(configuration);
     this.staticParser = new StaticParser(shellProvider);
     this.interpreter = new GreedyInterpreter(shellProvider);
     this.renderer = new Renderer(configuration);
@@ -56,25 +63,48 @@ public class InteractiveNotebook {
 
   public void run() throws IOException {
     prepare();
+    final Path notebooksFolder = Paths.get(configuration.notebookPath);
+    // a single watcher: its events maintain the notebook index and trigger the renderings
+    final ConnectableObservable<DirectoryChangeEvent> directoryEvents =
+            PathObservables.of(notebooksFolder,
+                               configuration.watchHashing,
+                               configuration.watchDepth,
+                               p -> p.toString().endsWith(JSHELL_SUFFIX)).publish();
+    final NotebookIndex notebookIndex = new NotebookIndex(notebooksFolder,
+                                                          configuration.watchDepth);
+    directoryEvents.subscribe(notebookIndex::update, InteractiveNotebook::logError);
     final Observable<DirectoryChangeEvent> fileChangeEvents =
-            PathObservables.of(Paths.get(configuration.notebookPath))
-                           .filter(e -> e.path().toString().endsWith(JSHELL_SUFFIX));
-    final PublishSubject<DirectoryChangeEvent> manualTriggers = PublishSubject.create();
+            directoryEvents.filter(e -> e.path().toString().endsWith(JSHELL_SUFFIX));
+    // triggered by the server and by the watcher of the project classes, from other threads
+    final Subject<DirectoryChangeEvent> manualTriggers =
+            PublishSubject.<DirectoryChangeEvent>create().toSerialized();
     this.server = new InteractiveServer(configuration,
                                         path -> manualTriggers.onNext(
-                                                directoryChangeEvent(path)));
+                                                directoryChangeEvent(path)),
+                                        new AssetStore(LocalStorage.instanceFor(configuration)
+                                                                   .getAssetsPath()),
+                                        notebookIndex);
     server.start();
     LOG.info("Notebook server started. Go to http://localhost:" + configuration.port);
     manualTriggers
             .mergeWith(fileChangeEvents)
             .doOnEach(e -> server.sendStatus(NotebookServerStatus.COMPUTE))
-            .map(staticParser::staticSnippets)
+            .map(e -> Stage.PARSE.time(() -> staticParser.staticSnippets(e)))
             .doOnError(InteractiveNotebook::logError)
             .map(interpreter::interpret)
             .doOnError(InteractiveNotebook::logError)
-            .map(renderer::render)
+            .map(i -> Stage.RENDER.time(() -> renderer.render(i)))
             .doOnError(InteractiveNotebook::logError)
             .subscribe(server::sendUpdate, InteractiveNotebook::logError);
+    // when the project is compiled again, the notebooks that reference the changed classes are
+    // interpreted again in fresh shells, that load the new classes
+    shellProvider.projectClassChanges()
+                 .map(interpreter::reloadClasses)
+                 .subscribe(paths -> paths.forEach(path -> manualTriggers.onNext(
+                                    directoryChangeEvent(path))),
+                            InteractiveNotebook::logError);
+    // blocks: watches the notebooks folder
+    directoryEvents.connect();
   }
 
   @NonNull
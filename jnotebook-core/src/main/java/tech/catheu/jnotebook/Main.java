@@ -10,6 +10,8 @@ package tech.catheu.jnotebook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
+import tech.catheu.jnotebook.file.PathObservables;
+import tech.catheu.jnotebook.render.AssetBundler;
 
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -28,7 +30,8 @@ public class Main {
   public static final String USER_HOME = System.getProperty("user.home");
 
   public static void main(String[] args) {
-    int exitCode = new CommandLine(new Main()).execute(args);
+    int exitCode = new CommandLine(new Main()).setCaseInsensitiveEnumValuesAllowed(true)
+                                              .execute(args);
     System.exit(exitCode);
   }
 
@@ -71,6 +74,10 @@ public class Main {
     @CommandLine.Option(names = {"--no-utils"},
                         description = "If passed, disable the injection of jnotebook-utils jar.")
     public boolean noUtils = false;
+
+    @CommandLine.Option(names = {"--eval-stats"},
+                        description = "If passed, display the evaluation time, cpu time and allocated memory of each code block. Blocks that were not evaluated again are marked as cached.")
+    public boolean evalStats = false;
   }
 
 
@@ -83,6 +90,21 @@ public class Main {
                         description = "Port of the notebook server",
                         defaultValue = "5002")
     public Integer port;
+
+    @CommandLine.Option(names = {"--compression-min-size"}, paramLabel = "<BYTES>",
+                        description = "Http responses smaller than this size are not compressed. Websocket messages are compressed whatever their size. Set to -1 to disable compression.",
+                        defaultValue = "1024")
+    public int compressionMinSize = 1024;
+
+    @CommandLine.Option(names = {"--watch-hashing"}, paramLabel = "<MODE>",
+                        description = "How notebook changes are detected: ${COMPLETION-CANDIDATES}. content hashes the notebook files, mtime uses their last modified time, none emits every file system event. Only notebook files are hashed.",
+                        defaultValue = "mtime")
+    public PathObservables.FileHashing watchHashing = PathObservables.FileHashing.MTIME;
+
+    @CommandLine.Option(names = {"--watch-depth"}, paramLabel = "<DEPTH>",
+                        description = "Maximum depth of the folders watched in the notebook folder.",
+                        defaultValue = "10")
+    public int watchDepth = 10;
   }
 
 
@@ -95,24 +117,59 @@ public class Main {
 
     public void run() {
       final NotebookRenderer renderer = NotebookRenderer.from(config);
-      renderer.render(config);
+      try {
+        renderer.render(config);
+      } finally {
+        renderer.stop();
+      }
     }
   }
 
   public static class RenderConfiguration extends SharedConfiguration {
 
     @CommandLine.Parameters(index = "0",
-                            description = "The path to the notebook to render.")
+                            description = "The path to the notebook to render. Can also be a directory or a glob, eg \"notebooks/**.jsh\": all the notebooks are rendered.")
     public String inputPath;
 
     
     @Nullable
-    @CommandLine.Parameters(index = "1", arity = "0..1", description = "The output path.")
+    @CommandLine.Parameters(index = "1", arity = "0..1", description = "The output path. When rendering a directory or a glob, the output directory: notebooks are written with their relative path.")
     public String outputPath;
 
+    // the render command - reports invalid option values
+    @CommandLine.Spec(CommandLine.Spec.Target.MIXEE)
+    private CommandLine.Model.CommandSpec spec;
+
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = {"--threads"}, paramLabel = "<THREADS>",
+                        description = "Number of notebooks rendered concurrently when rendering a directory or a glob. Defaults to the number of processors.")
+    private void setThreads(final int threads) {
+      if (threads < 1) {
+        throw new CommandLine.ParameterException(
+                spec.commandLine(),
+                "Invalid value '" + threads + "' for option '--threads': must be at least 1.");
+      }
+      this.threads = threads;
+    }
+
     @CommandLine.Option(names= {"--no-optimize"},
-                        description = "If passed, skips the html optimization. The optimization uses a headless browser to pre-render some components, and attempts to remove unused libraries.")
+                        description = "If passed, skips the html optimization. The optimization highlights the code, generates the table of contents and removes unused libraries.")
     public boolean noOptimize = false;
+
+    @CommandLine.Option(names= {"--browser-optimize"},
+                        description = "If passed, also pre-renders the styles, latex and mermaid diagrams in a headless browser. Slow: a browser is started. Requires Chrome.")
+    public boolean browserOptimize = false;
+
+    @CommandLine.Option(names = {"--browser-tabs"}, paramLabel = "<TABS>",
+                        description = "Maximum number of notebooks loaded concurrently in the headless browser by --browser-optimize.",
+                        defaultValue = "2")
+    public int browserTabs = 2;
+
+    @CommandLine.Option(names = {"--assets"}, paramLabel = "<MODE>",
+                        description = "How the libraries used by the notebook are loaded: ${COMPLETION-CANDIDATES}. cdn loads them from their CDN. inline embeds them in the html file. local copies them in an assets folder next to the html file. With inline and local, the notebook opens without network access. Libraries are downloaded once to the local storage.",
+                        defaultValue = "cdn")
+    public AssetBundler.Mode assets = AssetBundler.Mode.CDN;
   }
 
   protected static class VersionProvider implements CommandLine.IVersionProvider {
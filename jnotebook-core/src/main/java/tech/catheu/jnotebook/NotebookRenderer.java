@@ -8,161 +8,251 @@
 package tech.catheu.jnotebook;
 
 import com.google.common.io.Files;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
-import io.github.bonigarcia.wdm.WebDriverManager;
 import org.apache.commons.io.FileUtils;
-import org.jetbrains.annotations.NotNull;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tech.catheu.jnotebook.assets.Asset;
+import tech.catheu.jnotebook.assets.AssetStore;
 import tech.catheu.jnotebook.evaluate.Interpreted;
 import tech.catheu.jnotebook.evaluate.Interpreter;
 import tech.catheu.jnotebook.evaluate.SimpleInterpreter;
 import tech.catheu.jnotebook.jshell.ShellProvider;
+import tech.catheu.jnotebook.localstorage.LocalStorage;
 import tech.catheu.jnotebook.parse.StaticParser;
 import tech.catheu.jnotebook.parse.StaticParsing;
+import tech.catheu.jnotebook.render.AssetBundler;
+import tech.catheu.jnotebook.render.BrowserOptimizer;
+import tech.catheu.jnotebook.render.HtmlOptimizer;
 import tech.catheu.jnotebook.render.Renderer;
 import tech.catheu.jnotebook.render.Rendering;
 import tech.catheu.jnotebook.server.HtmlTemplateEngine;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 import static tech.catheu.jnotebook.utils.JavaUtils.optional;
 
 public class NotebookRenderer {
 
   private static final Logger LOG = LoggerFactory.getLogger(NotebookRenderer.class);
+  private static final String JSHELL_SUFFIX = ".jsh";
+  private static final String GLOB_CHARACTERS = "*?[{";
+
   private final StaticParser staticParser;
   private final Interpreter interpreter;
   private final Renderer renderer;
+  private final HtmlTemplateEngine templateEngine = new HtmlTemplateEngine();
+  private final HtmlOptimizer htmlOptimizer = new HtmlOptimizer();
+  private final BrowserOptimizer browserOptimizer;
+  private final AssetBundler assetBundler;
 
-  public static NotebookRenderer from(final Main.SharedConfiguration config) {
+  public static NotebookRenderer from(final Main.RenderConfiguration config) {
     final ShellProvider shellProvider = new ShellProvider(config);
     final StaticParser staticParser = new StaticParser(shellProvider);
     final SimpleInterpreter interpreter = new SimpleInterpreter(shellProvider);
     final Renderer renderer = new Renderer(config);
-    return new NotebookRenderer(staticParser, interpreter, renderer);
+    final BrowserOptimizer browserOptimizer = new BrowserOptimizer(config.browserTabs);
+    final AssetBundler assetBundler = new AssetBundler(new AssetStore(LocalStorage.instanceFor(
+            config).getAssetsPath()), config.assets);
+    return new NotebookRenderer(staticParser,
+                                interpreter,
+                                renderer,
+                                browserOptimizer,
+                                assetBundler);
   }
 
   protected NotebookRenderer(final StaticParser staticParser,
-                             final Interpreter interpreter, final Renderer renderer) {
+                             final Interpreter interpreter, final Renderer renderer,
+                             final BrowserOptimizer browserOptimizer,
+                             final AssetBundler assetBundler) {
     this.staticParser = staticParser;
     this.interpreter = interpreter;
     this.renderer = renderer;
+    this.browserOptimizer = browserOptimizer;
+    this.assetBundler = assetBundler;
   }
 
   public void render(final Main.RenderConfiguration config) {
+    if (isBatch(config.inputPath)) {
+      renderAll(config);
+    } else {
+      final String outputPath =
+              optional(config.outputPath).orElse(Files.getNameWithoutExtension(config.inputPath) + ".html");
+      render(config, Paths.get(config.inputPath), FileUtils.getFile(outputPath));
+    }
+  }
 
-    final Path filePath = Paths.get(config.inputPath);
+  private void render(final Main.RenderConfiguration config, final Path filePath,
+                      final File outputFile) {
     try {
       final StaticParsing staticParsing = staticParser.snippetsOf(filePath);
       final Interpreted interpreted = interpreter.interpret(staticParsing);
       final Rendering render = renderer.render(interpreted);
-      final HtmlTemplateEngine templateEngine = new HtmlTemplateEngine();
       final HtmlTemplateEngine.TemplateData model =
-              new HtmlTemplateEngine.TemplateData(config, false, render.html(), null);
+              new HtmlTemplateEngine.TemplateData(config, false, render.html(), null, Asset::url);
       String html = templateEngine.render(model);
       if (!config.noOptimize) {
-        html = optimizeHtml(html);
+        html = htmlOptimizer.optimize(html);
+        if (config.browserOptimize) {
+          html = browserOptimizer.optimize(html);
+        }
       }
+      // last: only the libraries that were not optimized away are bundled
+      html = assetBundler.bundle(html, outputFile.toPath());
 
-      final String outputPath =
-              optional(config.outputPath).orElse(Files.getNameWithoutExtension(config.inputPath) + ".html");
-      final File outputFile = FileUtils.getFile(outputPath);
       FileUtils.write(outputFile, html, StandardCharsets.UTF_8);
       LOG.info("Notebook rendered successfully and written to {}", outputFile);
     } catch (Exception e) {
       throw new RuntimeException(String.format("Exception rendering notebook %s: ",
                                                filePath) + e);
+    } finally {
+      interpreter.stop(filePath);
     }
   }
 
-  private String optimizeHtml(String html) {
-    // remove scripts that cannot be optimized
-    final Document originalDoc = Jsoup.parse(html);
-    originalDoc.outputSettings().prettyPrint(false);
-    final Elements noOptiScripts = originalDoc.head().select(".jnb-no-opti").remove();
-    final String htmlForOpti = originalDoc.outerHtml();
-
-    // serve file
-    HtmlFileServer miniServer = getMiniServer(htmlForOpti);
-    miniServer.server.start();
-    // use selenium to render the file with javascript in a browser and parse the content
-    ChromeOptions options = new ChromeOptions().addArguments("--headless=new");
-    WebDriverManager.chromedriver().setup();
-    final WebDriver webDriver = new ChromeDriver(options);
-    webDriver.get(miniServer.url);
-    final String htmlWithOpti = webDriver.getPageSource();
-    webDriver.quit();
-    miniServer.server().stop(0);
-
-    // remove scripts that were optimized
-    final Document notebookWithOpti = Jsoup.parse(htmlWithOpti);
-    notebookWithOpti.outputSettings().prettyPrint(false);
-    // remove the scripts that are not necessary anymore
-    notebookWithOpti.head().select(".jnb-opti").remove();
-
-    // put back scripts that cannot be optimized
-    // TODO - filter scripts and stylesheet that are not used
-    notebookWithOpti.head().appendChildren(noOptiScripts);
-
-    return "<!DOCTYPE html>\n" + notebookWithOpti.outerHtml();
+  private static boolean isBatch(final String inputPath) {
+    return isGlob(inputPath) || java.nio.file.Files.isDirectory(Paths.get(inputPath));
   }
 
-  @NotNull
-  private NotebookRenderer.HtmlFileServer getMiniServer(final String htmlFile) {
-    final byte[] htmlBytes = htmlFile.getBytes(StandardCharsets.UTF_8);
-    try {
-      final int port = getFreePort();
-      final HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-      server.createContext("/", new HttpHandler() {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-          exchange.getResponseHeaders().set("Content-Type", "text/html");
-          exchange.sendResponseHeaders(200, htmlBytes.length);
-          OutputStream responseStream = exchange.getResponseBody();
-          responseStream.write(htmlBytes);
-          responseStream.close();
+  private static boolean isGlob(final String inputPath) {
+    return inputPath.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0);
+  }
+
+  /**
+   * Renders all the notebooks of a directory or matching a glob, concurrently. Shells share the
+   * classpath resolved once by the shell provider. Each output is written as soon as its notebook
+   * is rendered, in the output directory, with the same relative path as the notebook.
+   */
+  private void renderAll(final Main.RenderConfiguration config) {
+    final Path baseDirectory = baseDirectory(config.inputPath);
+    final List<Path> notebooks = notebooksOf(config.inputPath, baseDirectory);
+    if (notebooks.isEmpty()) {
+      throw new IllegalArgumentException(String.format("No notebook found in %s",
+                                                       config.inputPath));
+    }
+    final Path outputDirectory = Paths.get(optional(config.outputPath).orElse(""));
+    LOG.info("Rendering {} notebooks with {} threads", notebooks.size(), config.threads);
+
+    // --threads is validated by the command line: only a configuration built in code can fail
+    checkArgument(config.threads >= 1, "threads must be at least 1: %s", config.threads);
+    final ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+    final List<Future<RenderSummary>> summaries = new ArrayList<>(notebooks.size());
+    for (final Path notebook : notebooks) {
+      final Path relativeOutput = baseDirectory.relativize(notebook)
+                                               .resolveSibling(Files.getNameWithoutExtension(
+                                                       notebook.getFileName().toString()) + ".html");
+      final File outputFile = outputDirectory.resolve(relativeOutput).toFile();
+      summaries.add(executor.submit(() -> {
+        final long start = System.nanoTime();
+        Exception error = null;
+        try {
+          render(config, notebook, outputFile);
+        } catch (Exception e) {
+          LOG.error("Failed to render {}", notebook, e);
+          error = e;
         }
-      });
-      final HtmlFileServer result =
-              new HtmlFileServer("http://localhost:" + port, server);
-      return result;
-    } catch (Exception e) {
-      LOG.error("Failed to create a server: ", e);
-      throw new RuntimeException("Failed to create a server.", e);
+        return new RenderSummary(notebook,
+                                 Duration.ofNanos(System.nanoTime() - start),
+                                 error);
+      }));
     }
+    executor.shutdown();
+
+    final List<RenderSummary> results = new ArrayList<>(summaries.size());
+    for (final Future<RenderSummary> summary : summaries) {
+      try {
+        results.add(summary.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        executor.shutdownNow();
+        throw new RuntimeException("Interrupted while rendering notebooks", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    logSummary(results);
+    final long failures = results.stream().filter(r -> r.error() != null).count();
+    if (failures > 0) {
+      throw new RuntimeException(String.format("Failed to render %s notebooks out of %s",
+                                               failures,
+                                               results.size()));
+    }
+  }
+
+  private static void logSummary(final List<RenderSummary> results) {
+    final StringBuilder summary = new StringBuilder("Render summary:\n");
+    results.stream()
+           .sorted(Comparator.comparing(RenderSummary::duration).reversed())
+           .forEach(r -> summary.append(String.format("%8d ms  %-7s %s%n",
+                                                      r.duration().toMillis(),
+                                                      r.error() == null ? "OK" : "FAILED",
+                                                      r.notebook())));
+    LOG.info(summary.toString());
+  }
+
+  /**
+   * Returns the directory that contains all the notebooks matched by the input path: the input path
+   * itself if it is a directory, else the part of the glob before the first wildcard.
+   */
+  private static Path baseDirectory(final String inputPath) {
+    if (!isGlob(inputPath)) {
+      return Paths.get(inputPath);
+    }
+    // the last name before the wildcard is incomplete - eg notebooks/chapter* - it is not part of the base
+    final Path beforeWildcard = Paths.get(inputPath.substring(0, firstGlobIndex(inputPath)) + "_");
+    return optional(beforeWildcard.getParent()).orElse(Paths.get(""));
   }
 
-  private int getFreePort() {
-    try (ServerSocket serverSocket = new ServerSocket(0)) {
-      checkNotNull(serverSocket,
-                   "Failed to find a free port: failed creating a ServerSocket instance.");
-      checkState(serverSocket.getLocalPort() > 0, "Failed to find a free port.");
-      final int localPort = serverSocket.getLocalPort();
-      serverSocket.close();
-      return localPort;
+  private static int firstGlobIndex(final String inputPath) {
+    for (int i = 0; i < inputPath.length(); i++) {
+      if (GLOB_CHARACTERS.indexOf(inputPath.charAt(i)) >= 0) {
+        return i;
+      }
+    }
+    return inputPath.length();
+  }
+
+  private static List<Path> notebooksOf(final String inputPath, final Path baseDirectory) {
+    final PathMatcher matcher = isGlob(inputPath) ?
+            FileSystems.getDefault().getPathMatcher("glob:" + inputPath) :
+            path -> path.getFileName().toString().endsWith(JSHELL_SUFFIX);
+    // walk from . when the base is the current directory, and keep the paths relative to be matched
+    final boolean currentDirectory = baseDirectory.toString().isEmpty();
+    final Path searchRoot = currentDirectory ? Paths.get(".") : baseDirectory;
+    try (final Stream<Path> paths = java.nio.file.Files.walk(searchRoot)) {
+      return paths.map(p -> currentDirectory ? searchRoot.relativize(p) : p)
+                  .filter(java.nio.file.Files::isRegularFile)
+                  .filter(matcher::matches)
+                  .sorted()
+                  .toList();
     } catch (IOException e) {
-      throw new RuntimeException("Failed to find a free port", e);
+      throw new RuntimeException(String.format("Failed listing notebooks in %s",
+                                               inputPath), e);
     }
   }
 
-  private record HtmlFileServer(String url, HttpServer server) {
+  public void stop() {
+    staticParser.stop();
+    interpreter.stop();
+    renderer.stop();
+    browserOptimizer.stop();
+  }
+
+  private record RenderSummary(Path notebook, Duration duration, Exception error) {
   }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.assets;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The javascript and css files loaded by the notebook page.
+ * The file name contains the version: a new version is stored in a new file.
+ */
+public enum Asset {
+  TAILWIND_JS("tailwind-3.3.2-typography.js",
+              "https://cdn.tailwindcss.com/3.3.2?plugins=typography"),
+  ALPINE_JS("alpinejs-3.12.1.min.js",
+            "https://cdn.jsdelivr.net/npm/alpinejs@3.12.1/dist/cdn.min.js"),
+  HIGHLIGHT_CSS("highlight-11.7.0-default.min.css",
+                "https://cdnjs.cloudflare.com/ajax/libs/highlight.js/11.7.0/styles/default.min.css"),
+  HIGHLIGHT_JS("highlight-11.7.0.min.js",
+               "https://cdnjs.cloudflare.com/ajax/libs/highlight.js/11.7.0/highlight.min.js"),
+  TOCBOT_CSS("tocbot-4.18.2.css",
+             "https://cdnjs.cloudflare.com/ajax/libs/tocbot/4.18.2/tocbot.css"),
+  TOCBOT_JS("tocbot-4.18.2.min.js",
+            "https://cdnjs.cloudflare.com/ajax/libs/tocbot/4.18.2/tocbot.min.js"),
+  KATEX_CSS("katex-0.16.8.min.css",
+            "https://cdn.jsdelivr.net/npm/katex@0.16.8/dist/katex.min.css",
+            "sha384-GvrOXuhMATgEsSwCs4smul74iXGOixntILdUW9XmUC6+HX0sLNAK3q71HotJqlAn"),
+  KATEX_JS("katex-0.16.8.min.js",
+           "https://cdn.jsdelivr.net/npm/katex@0.16.8/dist/katex.min.js",
+           "sha384-cpW21h6RZv/phavutF+AuVYrr+dA8xD9zs6FwLpaCct6O9ctzYFfFr4dgmgccOTx"),
+  MERMAID_JS("mermaid-10.2.4.min.js",
+             "https://cdn.jsdelivr.net/npm/mermaid@10.2.4/dist/mermaid.min.js"),
+  VEGA_JS("vega-5.js", "https://cdn.jsdelivr.net/npm/vega@5"),
+  VEGA_LITE_JS("vega-lite-5.js", "https://cdn.jsdelivr.net/npm/vega-lite@5"),
+  VEGA_EMBED_JS("vega-embed-6.js", "https://cdn.jsdelivr.net/npm/vega-embed@6"),
+  D3_JS("d3-7.js", "https://d3js.org/d3.v7.js"),
+  FLAMEGRAPH_CSS("d3-flamegraph-4.1.3.css",
+                 "https://cdn.jsdelivr.net/npm/d3-flame-graph@4.1.3/dist/d3-flamegraph.css"),
+  FLAMEGRAPH_JS("d3-flamegraph-4.1.3.min.js",
+                "https://cdn.jsdelivr.net/npm/d3-flame-graph@4.1.3/dist/d3-flamegraph.min.js"),
+  PLOTLY_JS("plotly-latest.min.js", "https://cdn.plot.ly/plotly-latest.min.js");
+
+  private final String fileName;
+  private final String url;
+  private final @Nullable String integrity;
+
+  Asset(final String fileName, final String url) {
+    this(fileName, url, null);
+  }
+
+  Asset(final String fileName, final String url, final @Nullable String integrity) {
+    this.fileName = fileName;
+    this.url = url;
+    this.integrity = integrity;
+  }
+
+  public String fileName() {
+    return fileName;
+  }
+
+  /**
+   * The CDN url of the asset.
+   */
+  public String url() {
+    return url;
+  }
+
+  /**
+   * The subresource integrity of the CDN file, if known.
+   */
+  public @Nullable String integrity() {
+    return integrity;
+  }
+
+  public boolean isStylesheet() {
+    return fileName.endsWith(".css");
+  }
+
+  public String contentType() {
+    return isStylesheet() ? "text/css; charset=utf-8" : "text/javascript; charset=utf-8";
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.assets;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static tech.catheu.jnotebook.utils.FileUtils.createDirectoriesIfNotExists;
+
+/**
+ * Vendors the notebook page assets in a local storage folder.
+ * Assets are downloaded once from their CDN. They are stored with the hash of their content in their
+ * file name: a stored file never changes, so it can be cached forever by browsers.
+ * If an asset cannot be downloaded - eg offline - it is not stored: the CDN url should be used.
+ * A failed download is not attempted again by the process. After a connection error, no download
+ * is attempted anymore: renders do not wait for a timeout per asset.
+ */
+public class AssetStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AssetStore.class);
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+  private static final int HASH_LENGTH = 16;
+  // relative urls in stylesheets - eg fonts. They are made absolute: they are not stored.
+  private static final Pattern RELATIVE_CSS_URL =
+          Pattern.compile("url\\((['\"]?)(?!data:|https?:|/|#)([^'\")]+)\\1\\)");
+
+  private final Path folder;
+  private final Map<Asset, StoredAsset> storedAssets = new ConcurrentHashMap<>();
+  private final Map<String, StoredAsset> storedAssetsByFileName = new ConcurrentHashMap<>();
+  // assets that failed to download - guarded by this
+  private final Set<Asset> failedAssets = new HashSet<>();
+  // set after a connection error - guarded by this
+  private boolean unreachable = false;
+  private HttpClient client = null;
+
+  public AssetStore(final Path folder) {
+    this.folder = folder;
+    createDirectoriesIfNotExists(folder);
+    load();
+  }
+
+  public record StoredAsset(Asset asset, String fileName, Path path) {
+  }
+
+  /**
+   * Returns the asset if it is in the local storage. Never downloads.
+   */
+  public Optional<StoredAsset> get(final Asset asset) {
+    return Optional.ofNullable(storedAssets.get(asset));
+  }
+
+  /**
+   * Returns the number of assets in the local storage.
+   */
+  public int size() {
+    return storedAssets.size();
+  }
+
+  /**
+   * Returns the stored asset with the given content-hashed file name.
+   */
+  public Optional<StoredAsset> getByFileName(final String fileName) {
+    return Optional.ofNullable(storedAssetsByFileName.get(fileName));
+  }
+
+  /**
+   * Returns the asset, downloading it if it is not in the local storage. Returns an empty optional
+   * if the download fails, or failed before.
+   */
+  public synchronized Optional<StoredAsset> fetch(final Asset asset) {
+    final Optional<StoredAsset> stored = get(asset);
+    if (stored.isPresent() || unreachable || failedAssets.contains(asset)) {
+      return stored;
+    }
+    try {
+      return Optional.of(download(asset));
+    } catch (IOException e) {
+      failedAssets.add(asset);
+      if (e instanceof ConnectException || e instanceof HttpConnectTimeoutException) {
+        unreachable = true;
+        LOG.warn("Failed to connect to {} to download {}. Assets are not downloaded anymore: the "
+                 + "CDN urls are used. Error: {}", asset.url(), asset.fileName(), e.toString());
+      } else {
+        LOG.warn("Failed to download {} from {}. The CDN url is used. Error: {}",
+                 asset.fileName(),
+                 asset.url(),
+                 e.getMessage());
+      }
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Downloads the assets that are not in the local storage, in a background thread.
+   */
+  public void fetchAllAsync() {
+    if (storedAssets.size() == Asset.values().length) {
+      return;
+    }
+    final Thread fetcher = new Thread(() -> {
+      for (final Asset asset : Asset.values()) {
+        fetch(asset);
+      }
+      LOG.info("{} of {} assets are available locally",
+               storedAssets.size(),
+               Asset.values().length);
+    }, "jnotebook-assets");
+    fetcher.setDaemon(true);
+    fetcher.start();
+  }
+
+  private void load() {
+    try (final Stream<Path> files = Files.list(folder)) {
+      files.forEach(file -> {
+        final String fileName = file.getFileName().toString();
+        for (final Asset asset : Asset.values()) {
+          if (isFileOf(fileName, asset)) {
+            store(new StoredAsset(asset, fileName, file));
+          }
+        }
+      });
+    } catch (IOException e) {
+      LOG.warn("Failed to list the assets in {}: {}", folder, e.getMessage());
+    }
+  }
+
+  // stored files are named <hash>-<asset file name>
+  private static boolean isFileOf(final String fileName, final Asset asset) {
+    return fileName.length() == HASH_LENGTH + 1 + asset.fileName().length() && fileName.endsWith(
+            "-" + asset.fileName());
+  }
+
+  private StoredAsset download(final Asset asset) throws IOException, InterruptedException {
+    LOG.info("Downloading {} to local storage", asset.fileName());
+    final HttpRequest request =
+            HttpRequest.newBuilder(URI.create(asset.url())).timeout(TIMEOUT).GET().build();
+    final HttpResponse<byte[]> response =
+            client().send(request, HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() != 200) {
+      throw new IOException("Unexpected status code " + response.statusCode());
+    }
+    byte[] content = response.body();
+    if (asset.integrity() != null && !asset.integrity().equals(integrityOf(content))) {
+      throw new IOException("The content does not match the expected integrity " + asset.integrity());
+    }
+    if (asset.isStylesheet()) {
+      content = absoluteUrls(new String(content, StandardCharsets.UTF_8),
+                             response.uri()).getBytes(StandardCharsets.UTF_8);
+    }
+    final String hash = Hashing.sha256().hashBytes(content).toString().substring(0, HASH_LENGTH);
+    final String fileName = hash + "-" + asset.fileName();
+    final Path path = folder.resolve(fileName);
+    final Path tempPath = Files.createTempFile(folder, asset.name(), ".tmp");
+    Files.write(tempPath, content);
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    final StoredAsset storedAsset = new StoredAsset(asset, fileName, path);
+    store(storedAsset);
+    return storedAsset;
+  }
+
+  private void store(final StoredAsset storedAsset) {
+    storedAssets.put(storedAsset.asset(), storedAsset);
+    storedAssetsByFileName.put(storedAsset.fileName(), storedAsset);
+  }
+
+  private static String integrityOf(final byte[] content) {
+    return "sha384-" + Base64.getEncoder().encodeToString(Hashing.sha384().hashBytes(content).asBytes());
+  }
+
+  private static String absoluteUrls(final String css, final URI base) {
+    final Matcher matcher = RELATIVE_CSS_URL.matcher(css);
+    final StringBuilder sb = new StringBuilder();
+    while (matcher.find()) {
+      final String absolute = base.resolve(matcher.group(2)).toString();
+      matcher.appendReplacement(sb, Matcher.quoteReplacement("url(" + absolute + ")"));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  // the client is only created if an asset is missing
+  private HttpClient client() {
+    if (client == null) {
+      client = HttpClient.newBuilder()
+                         .followRedirects(HttpClient.Redirect.NORMAL)
+                         .connectTimeout(TIMEOUT)
+                         .build();
+    }
+    return client;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.evaluate;
+
+import com.google.common.graph.Graph;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * An index-based copy of the dependency graph of a notebook, to compute the snippets to run
+ * again. Nodes are numbered in the order of the graph. The successors of a node are stored in a
+ * single array: the successors of node i are at [successorOffsets[i], successorOffsets[i+1]).
+ * The traversal is iterative - long dependency chains do not overflow the stack - and visits each
+ * node once. Not thread-safe.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class DependencyIndex {
+
+  private static final int[] NO_NODES = new int[0];
+
+  private final String[] names;
+  private final Map<String, Integer> nameToNode;
+  private final int[] snippetIdx;
+  private final int[] successorOffsets;
+  private final int[] successors;
+  private final Function<String, Set<String>> mutatedVariables;
+  // computed on first use - the mutation analysis scans the member
+  private final int[][] mutatedNodes;
+  // a node is pushed once at most: the stack never holds more than all the nodes
+  private final int[] stack;
+
+  private DependencyIndex(final String[] names,
+                          final Map<String, Integer> nameToNode,
+                          final int[] snippetIdx,
+                          final int[] successorOffsets,
+                          final int[] successors,
+                          final Function<String, Set<String>> mutatedVariables) {
+    this.names = names;
+    this.nameToNode = nameToNode;
+    this.snippetIdx = snippetIdx;
+    this.successorOffsets = successorOffsets;
+    this.successors = successors;
+    this.mutatedVariables = mutatedVariables;
+    this.mutatedNodes = new int[names.length][];
+    this.stack = new int[names.length];
+  }
+
+  /**
+   * @param snippetIdx       returns the index of the snippet of a node
+   * @param mutatedVariables returns the nodes a node may mutate when it is run again
+   */
+  public static DependencyIndex of(final Graph<String> graph,
+                                   final ToIntFunction<String> snippetIdx,
+                                   final Function<String, Set<String>> mutatedVariables) {
+    final int size = graph.nodes().size();
+    final String[] names = new String[size];
+    final Map<String, Integer> nameToNode = new HashMap<>(size * 2);
+    final int[] snippetIndexes = new int[size];
+    int node = 0;
+    for (final String name : graph.nodes()) {
+      names[node] = name;
+      nameToNode.put(name, node);
+      snippetIndexes[node] = snippetIdx.applyAsInt(name);
+      node++;
+    }
+    final int[] successorOffsets = new int[size + 1];
+    for (int i = 0; i < size; i++) {
+      successorOffsets[i + 1] = successorOffsets[i] + graph.outDegree(names[i]);
+    }
+    final int[] successors = new int[successorOffsets[size]];
+    for (int i = 0; i < size; i++) {
+      int offset = successorOffsets[i];
+      for (final String successor : graph.successors(names[i])) {
+        successors[offset++] = nameToNode.get(successor);
+      }
+    }
+    return new DependencyIndex(names,
+                               nameToNode,
+                               snippetIndexes,
+                               successorOffsets,
+                               successors,
+                               mutatedVariables);
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * Returns the node of the name, or -1 if the name is not in the graph.
+   */
+  public int node(final String name) {
+    final Integer node = nameToNode.get(name);
+    return node == null ? -1 : node;
+  }
+
+  public String name(final int node) {
+    return names[node];
+  }
+
+  public int snippetIdx(final int node) {
+    return snippetIdx[node];
+  }
+
+  /**
+   * Marks the node to be run again, with its successors, transitively. Running a node again may
+   * mutate the upstream variables it references: these variables are run again too, with their
+   * successors. Nodes already in invalidated are not visited again.
+   *
+   * @param invalidated       the invalidated nodes - updated
+   * @param snippetsIdxToRun  the indexes of the snippets to run - updated
+   */
+  public void invalidate(final int node, final BitSet invalidated, final BitSet snippetsIdxToRun) {
+    if (invalidated.get(node)) {
+      return;
+    }
+    int top = 0;
+    invalidated.set(node);
+    stack[top++] = node;
+    while (top > 0) {
+      final int current = stack[--top];
+      snippetsIdxToRun.set(snippetIdx[current]);
+      for (int i = successorOffsets[current]; i < successorOffsets[current + 1]; i++) {
+        final int successor = successors[i];
+        if (!invalidated.get(successor)) {
+          invalidated.set(successor);
+          stack[top++] = successor;
+        }
+      }
+      for (final int mutated : mutatedNodes(current)) {
+        if (!invalidated.get(mutated)) {
+          invalidated.set(mutated);
+          stack[top++] = mutated;
+        }
+      }
+    }
+  }
+
+  private int[] mutatedNodes(final int node) {
+    int[] mutated = mutatedNodes[node];
+    if (mutated == null) {
+      final Set<String> variables = mutatedVariables.apply(names[node]);
+      mutated = variables.isEmpty() ? NO_NODES : variables.stream()
+                                                          .mapToInt(this::node)
+                                                          .filter(n -> n >= 0)
+                                                          .toArray();
+      mutatedNodes[node] = mutated;
+    }
+    return mutated;
+  }
+}
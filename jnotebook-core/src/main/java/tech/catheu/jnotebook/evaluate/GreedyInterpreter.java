@@ -11,7 +11,12 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.graph.GraphBuilder;
 import com.google.common.graph.MutableGraph;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import jdk.jshell.ErroneousSnippet;
+import jdk.jshell.ImportSnippet;
 import jdk.jshell.Snippet;
 import jdk.jshell.SnippetEvent;
 import jdk.jshell.SourceCodeAnalysis;
@@ -25,24 +30,37 @@ import spoon.reflect.code.CtComment;
 import spoon.reflect.declaration.CtClass;
 import spoon.reflect.declaration.CtElement;
 import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtType;
 import spoon.reflect.declaration.CtTypeMember;
+import spoon.reflect.declaration.ModifierKind;
 import spoon.reflect.reference.CtArrayTypeReference;
 import spoon.reflect.reference.CtExecutableReference;
 import spoon.reflect.reference.CtFieldReference;
 import spoon.reflect.reference.CtTypeReference;
 import spoon.reflect.visitor.CtScanner;
 import spoon.support.compiler.VirtualFile;
+import spoon.support.reflect.CtExtendedModifier;
 import tech.catheu.jnotebook.ExecutionStatus;
 import tech.catheu.jnotebook.jshell.EvalResult;
 import tech.catheu.jnotebook.jshell.PowerJShell;
+import tech.catheu.jnotebook.jshell.PowerJShell.BatchResult;
 import tech.catheu.jnotebook.jshell.ShellProvider;
+import tech.catheu.jnotebook.metrics.Counter;
+import tech.catheu.jnotebook.metrics.Metrics;
+import tech.catheu.jnotebook.metrics.Stage;
 import tech.catheu.jnotebook.parse.StaticParsing;
 import tech.catheu.jnotebook.parse.StaticSnippet;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import static com.google.common.base.Preconditions.checkState;
 import static jdk.jshell.Snippet.Kind.*;
 
 @SuppressWarnings("UnstableApiUsage")
@@ -71,11 +89,43 @@ public class GreedyInterpreter implements Interpreter {
     }
   };
 
-  final Map<Path, State> fileToState = new HashMap<>();
+  private static final HashFunction FINGERPRINT_FUNCTION = Hashing.murmur3_128();
+  private static final Pattern NON_IDENTIFIER_CHARS =
+          Pattern.compile("[^\\p{javaJavaIdentifierPart}]+");
+
+  // below this size, compiling declarations in a batch does not pay for the extra class
+  private static final int MIN_BATCH_SIZE = 8;
+
+  private static final String CACHE_METRIC = "jnotebook_eval_cache_total";
+  private static final String CACHE_METRIC_HELP =
+          "Java snippets served from the evaluation cache (hit), or evaluated (miss).";
+  private static final Counter CACHE_HITS =
+          Metrics.counter(CACHE_METRIC, CACHE_METRIC_HELP, "result", "hit");
+  private static final Counter CACHE_MISSES =
+          Metrics.counter(CACHE_METRIC, CACHE_METRIC_HELP, "result", "miss");
+  private static final Counter COMPACTIONS =
+          Metrics.counter("jnotebook_shell_compactions_total",
+                          "Shells replaced by a fresh shell holding only the live snippets.");
+  private static final String SHELL_AGE_METRIC = "jnotebook_shell_age_seconds";
+  private static final String SHELL_SNIPPETS_METRIC = "jnotebook_shell_snippets";
+
+  // JShell keeps every snippet, even when dropped or overwritten: the shell of a notebook edited
+  // for hours grows without bound. Past this number of dropped or overwritten snippets, the shell
+  // is replaced by a fresh one.
+  private static final int COMPACTION_THRESHOLD = 1000;
+
+  // concurrent: class reloads are requested by the watcher of the project classes
+  final Map<Path, State> fileToState = new ConcurrentHashMap<>();
   private final ShellProvider shellProvider;
+  private final int compactionThreshold;
 
   public GreedyInterpreter(final ShellProvider shellProvider) {
+    this(shellProvider, COMPACTION_THRESHOLD);
+  }
+
+  GreedyInterpreter(final ShellProvider shellProvider, final int compactionThreshold) {
     this.shellProvider = shellProvider;
+    this.compactionThreshold = compactionThreshold;
   }
 
   @Override
@@ -105,119 +155,459 @@ public class GreedyInterpreter implements Interpreter {
 
   @NotNull
   private Interpreted internalInterpret(final StaticParsing staticParsing) {
-    final State state = fileToState.computeIfAbsent(staticParsing.path(),
-                                                    path -> new State(new HashMap<>(),
-                                                                      new HashMap<>(),
-                                                                      newShell(path)));
+    final State state = stateFor(staticParsing.path());
+    final boolean coldStart = state.fingerprintToEvalResult.isEmpty();
+    state.identifiers.set(identifiers(staticParsing));
 
-    final SourceClass source =
-            buildSourceClass(staticParsing, state.shell.sourceCodeAnalysis());
-    final CtClass<?> ast = parseClassCode(source.classCode());
-    final DependencyGraph depGraph = buildDependenciesGraph(ast);
+    final DependencyGraph depGraph = Stage.ANALYSIS.time(() -> {
+      final SourceClass source =
+              buildSourceClass(staticParsing, state.shell.sourceCodeAnalysis());
+      final CtClass<?> ast = parseClassCode(source.classCode());
+      return buildDependenciesGraph(ast, source);
+    });
 
     // resolve diff and dependencies
-    final BiMap<String, Integer> fingerprintToSnippetIdx = HashBiMap.create();
-    final Set<Integer> snippetsIdxToRun = new HashSet<>();
-    final HashMap<String, String> newSimpleNameToFingerprint = new HashMap<>();
-    for (final String simpleName : depGraph.dependencies.nodes()) {
+    final MutationAnalysis mutations =
+            new MutationAnalysis(depGraph.simpleNameToMember, SYNTHETIC_CLASS_NAME);
+    final DependencyIndex index = DependencyIndex.of(depGraph.dependencies,
+                                                     depGraph::snippetIdx,
+                                                     mutations::mutatedVariables);
+    final BiMap<HashCode, Integer> fingerprintToSnippetIdx = HashBiMap.create();
+    final Map<Integer, String> snippetIdxToSimpleName = new HashMap<>();
+    final BitSet snippetsIdxToRun = new BitSet();
+    final BitSet invalidated = new BitSet();
+    final HashMap<String, HashCode> newSimpleNameToFingerprint = new HashMap<>();
+    for (int node = 0; node < index.size(); node++) {
+      final String simpleName = index.name(node);
+      final int snippetId = index.snippetIdx(node);
+      snippetIdxToSimpleName.put(snippetId, simpleName);
       final CtTypeMember ctMember = depGraph.simpleNameToMember.get(simpleName);
-      final Integer snippetId =
-              Integer.valueOf(ctMember.getComments().get(0).getContent());
-      // save top level comments - it contains the snippet id
-      final List<CtComment> comments = ctMember.getComments();
-      ctMember.accept(FINGERPRINT_PREPARATOR);
-      final Set<String> predecessors = depGraph.dependencies.predecessors(simpleName);
-      final String fingerprint = ctMember.toString() + predecessors.hashCode();
-      // put back top level comments - it may be used by consumers downstream
-      ctMember.setComments(comments);
+      final String normalizedSource;
+      if (ctMember == null) {
+        // an import - its node name is its normalized source
+        normalizedSource = simpleName;
+      } else {
+        // save top level comments - it contains the snippet id
+        final List<CtComment> comments = ctMember.getComments();
+        ctMember.accept(FINGERPRINT_PREPARATOR);
+        normalizedSource = ctMember.toString();
+        // put back top level comments - it may be used by consumers downstream
+        ctMember.setComments(comments);
+      }
+      // imports then members are visited in the notebook order: predecessors are already
+      // fingerprinted
+      final HashCode fingerprint = fingerprint(normalizedSource,
+                                               depGraph.dependencies.predecessors(simpleName),
+                                               newSimpleNameToFingerprint);
       final Integer duplicateFingerPrintSnippetIdx =
               fingerprintToSnippetIdx.put(fingerprint, snippetId);
       newSimpleNameToFingerprint.put(simpleName, fingerprint);
       if (!state.fingerprintToEvalResult.containsKey(fingerprint)) {
-        snippetsIdxToRun.add(snippetId);
-        addAllSuccessorsAndPredecessors(snippetsIdxToRun, depGraph, simpleName);
+        index.invalidate(node, invalidated, snippetsIdxToRun);
       } else if (depGraph.forwardReferences.contains(simpleName)) {
-        snippetsIdxToRun.add(snippetId);
+        snippetsIdxToRun.set(snippetId);
       } else if (duplicateFingerPrintSnippetIdx != null) {
         // with the current architecture, it's not possible to know what to do when a fingerprint is duplicated
         // I don't think it is possible without a perfect diff computer - because of java mutability
         // a duplicated fingerprint should always be re-run
-        snippetsIdxToRun.add(snippetId);
-        addAllSuccessorsAndPredecessors(snippetsIdxToRun, depGraph, simpleName);
-        snippetsIdxToRun.add(duplicateFingerPrintSnippetIdx);
+        index.invalidate(node, invalidated, snippetsIdxToRun);
+        index.invalidate(index.node(snippetIdxToSimpleName.get(duplicateFingerPrintSnippetIdx)),
+                         invalidated,
+                         snippetsIdxToRun);
+      }
+    }
+
+    // the snippets referencing reloaded classes are linked to the previous classes
+    if (!state.reloadedClasses.isEmpty()) {
+      final Set<String> reloadedNames = simpleNames(state.reloadedClasses);
+      for (int node = 0; node < index.size(); node++) {
+        final String source = depGraph.importToSnippetIdx.containsKey(index.name(node))
+                              ? index.name(node)
+                              : staticParsing.snippets()
+                                             .get(index.snippetIdx(node))
+                                             .completionInfo()
+                                             .source();
+        if (!Collections.disjoint(identifiers(source), reloadedNames)) {
+          index.invalidate(node, invalidated, snippetsIdxToRun);
+        }
+      }
+    }
+
+    final List<HashCode> outdatedFingerprints = new ArrayList<>();
+    state.fingerprintToEvalResult.keySet()
+                                 .stream()
+                                 .filter(fingerprint -> !fingerprintToSnippetIdx.containsKey(
+                                         fingerprint))
+                                 .forEach(outdatedFingerprints::add);
+    // the variables mutated by outdated snippets are not in their expected state anymore
+    for (final HashCode fingerprint : outdatedFingerprints) {
+      for (final String variable : state.fingerprintToMutatedVariables.getOrDefault(fingerprint,
+                                                                                    Set.of())) {
+        final int variableNode = index.node(variable);
+        if (variableNode >= 0) {
+          index.invalidate(variableNode, invalidated, snippetsIdxToRun);
+        }
+      }
+    }
+
+    // a batch of declarations is imported as a whole: when one of its declarations is outdated,
+    // the batch is dropped and its other declarations are evaluated again, one by one
+    for (final HashCode fingerprint : outdatedFingerprints) {
+      final Batch batch = state.fingerprintToBatch.get(fingerprint);
+      if (batch != null) {
+        dropBatch(state, batch);
+        for (final HashCode member : batch.members()) {
+          final Integer memberSnippetIdx = fingerprintToSnippetIdx.get(member);
+          if (memberSnippetIdx != null) {
+            state.fingerprintToEvalResult.remove(member);
+            index.invalidate(index.node(snippetIdxToSimpleName.get(memberSnippetIdx)),
+                             invalidated,
+                             snippetsIdxToRun);
+          }
+        }
       }
     }
 
+    do {
+      invalidateVariablesMutatedBelow(state,
+                                      depGraph,
+                                      index,
+                                      fingerprintToSnippetIdx,
+                                      invalidated,
+                                      snippetsIdxToRun);
+    } while (invalidatePredecessorsNotInShell(state,
+                                              depGraph,
+                                              index,
+                                              newSimpleNameToFingerprint,
+                                              invalidated,
+                                              snippetsIdxToRun));
+
     // clean outdated jshell snippets
-    final List<String> toRemove = new ArrayList<>(state.fingerprintToEvalResult.keySet()
-                                                                               .stream()
-                                                                               .filter(fingerprint -> !fingerprintToSnippetIdx.containsKey(
-                                                                                       fingerprint))
-                                                                               .toList());
+    final List<HashCode> toRemove = new ArrayList<>(outdatedFingerprints);
     depGraph.forwardReferences.forEach(f -> toRemove.add(state.simpleNameToFingerprint.get(
             f)));
-    for (final String fingerprint : toRemove) {
+    for (final HashCode fingerprint : toRemove) {
       final EvalResult evalResult = state.fingerprintToEvalResult.get(fingerprint);
       if (evalResult != null) {
-        for (SnippetEvent s : evalResult.events()) {
-          // fixme cyril ? this uses jshell dependency mechanism but does not delete according to computed dependencies
-          LOG.debug("Dropping outdated snippet: {}", s.snippet().source().trim());
-          state.shell.drop(s.snippet());
+        // the snippets evaluated in a previous shell are not in the shell
+        if (!state.notInShell.remove(fingerprint)) {
+          for (SnippetEvent s : evalResult.events()) {
+            // fixme cyril ? this uses jshell dependency mechanism but does not delete according to computed dependencies
+            LOG.debug("Dropping outdated snippet: {}", s.snippet().source().trim());
+            state.shell.drop(s.snippet());
+          }
         }
         state.fingerprintToEvalResult.remove(fingerprint);
+        state.fingerprintToMutatedVariables.remove(fingerprint);
       }
     }
     state.simpleNameToFingerprint.clear(); // not the cleanest way to implement this
     state.simpleNameToFingerprint.putAll(newSimpleNameToFingerprint);
 
+    final Map<Integer, EvalResult> batchedResults =
+            coldStart ? evalBatches(staticParsing,
+                                    state,
+                                    depGraph,
+                                    fingerprintToSnippetIdx,
+                                    snippetIdxToSimpleName,
+                                    snippetsIdxToRun) : Map.of();
+
     // build result snippets
     final List<InterpretedSnippet> interpretedSnippets = new ArrayList<>();
     for (int i = 0; i < staticParsing.snippets().size(); i++) {
       final StaticSnippet s = staticParsing.snippets().get(i);
-      final String fingerprint = fingerprintToSnippetIdx.inverse().get(i);
+      final HashCode fingerprint = fingerprintToSnippetIdx.inverse().get(i);
       if (s.type().equals(StaticSnippet.Type.JAVA)) {
         if (fingerprint == null) {
-          // imports are not fingerprinted and always re-evaluated for the moment
-          LOG.debug("Evaluating: " + s.completionInfo().source().strip());
-          final EvalResult res = state.shell.eval(s.completionInfo().source());
-          interpretedSnippets.add(new InterpretedSnippet(s, res));
-        } else if (snippetsIdxToRun.contains(i)) {
+          // duplicated imports are not in the dependency graph and always re-evaluated
           LOG.debug("Evaluating: " + s.completionInfo().source().strip());
           final EvalResult res = state.shell.eval(s.completionInfo().source());
+          interpretedSnippets.add(new InterpretedSnippet(s, res, false));
+        } else if (snippetsIdxToRun.get(i)) {
+          CACHE_MISSES.increment();
+          final EvalResult batchedResult = batchedResults.get(i);
+          final EvalResult res;
+          if (batchedResult != null) {
+            LOG.debug("Compiled in batch: " + s.completionInfo().source().strip());
+            res = batchedResult;
+          } else {
+            LOG.debug("Evaluating: " + s.completionInfo().source().strip());
+            res = state.shell.eval(s.completionInfo().source());
+          }
           state.fingerprintToEvalResult.put(fingerprint, res);
-          interpretedSnippets.add(new InterpretedSnippet(s, res));
+          state.notInShell.remove(fingerprint);
+          state.fingerprintToMutatedVariables.put(fingerprint,
+                                                  mutations.mutatedVariables(
+                                                          snippetIdxToSimpleName.get(i)));
+          interpretedSnippets.add(new InterpretedSnippet(s, res, false));
         } else {
           // use cached result
+          CACHE_HITS.increment();
           LOG.debug("Using cache for: " + s.completionInfo().source().strip());
           final EvalResult res = state.fingerprintToEvalResult.get(fingerprint);
-          interpretedSnippets.add(new InterpretedSnippet(s, res));
+          interpretedSnippets.add(new InterpretedSnippet(s, res, true));
         }
       } else {
-        interpretedSnippets.add(new InterpretedSnippet(s, null));
+        interpretedSnippets.add(new InterpretedSnippet(s, null, false));
       }
     }
 
+    state.reloadedClasses.clear();
     return new Interpreted(staticParsing.path(),
                            staticParsing.lines(),
                            interpretedSnippets,
                            ExecutionStatus.ok());
   }
 
-  private void addAllSuccessorsAndPredecessors(final Set<Integer> snippetsIdxToRerun,
-                                               final DependencyGraph depGraph,
-                                               final String nodeSimpleName) {
-    final Set<String> related =
-            new HashSet<>(depGraph.dependencies.successors(nodeSimpleName));
-    related.addAll(depGraph.dependencies.predecessors(nodeSimpleName));
-    for (final String simpleName : related) {
-      final CtTypeMember ctTypeMember = depGraph.simpleNameToMember().get(simpleName);
-      final Integer snippetId =
-              Integer.valueOf(ctTypeMember.getComments().get(0).getContent());
-      if (!snippetsIdxToRerun.contains(snippetId)) {
-        snippetsIdxToRerun.add(snippetId);
-        addAllSuccessorsAndPredecessors(snippetsIdxToRerun, depGraph, simpleName);
+  /**
+   * A snippet run again reads its predecessors in the shell. The predecessors cached from a
+   * previous shell are not in the shell: they are invalidated, so they are run again with their
+   * successors - the snippets that mutate them included. Imports hold no state: they are only run
+   * again. Repeated until all the predecessors of the snippets to run are in the shell.
+   * Returns whether a predecessor was invalidated.
+   */
+  private static boolean invalidatePredecessorsNotInShell(
+          final State state,
+          final DependencyGraph depGraph,
+          final DependencyIndex index,
+          final Map<String, HashCode> simpleNameToFingerprint,
+          final BitSet invalidated,
+          final BitSet snippetsIdxToRun) {
+    if (state.notInShell.isEmpty()) {
+      return false;
+    }
+    boolean invalidatedAny = false;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int node = 0; node < index.size(); node++) {
+        if (!snippetsIdxToRun.get(index.snippetIdx(node))) {
+          continue;
+        }
+        for (final String predecessor : depGraph.dependencies.predecessors(index.name(node))) {
+          final int predecessorNode = index.node(predecessor);
+          final int predecessorIdx = index.snippetIdx(predecessorNode);
+          if (snippetsIdxToRun.get(predecessorIdx)
+              || !state.notInShell.contains(simpleNameToFingerprint.get(predecessor))) {
+            continue;
+          }
+          if (depGraph.importToSnippetIdx.containsKey(predecessor)) {
+            snippetsIdxToRun.set(predecessorIdx);
+          } else {
+            index.invalidate(predecessorNode, invalidated, snippetsIdxToRun);
+            invalidatedAny = true;
+          }
+          changed = true;
+        }
       }
     }
+    return invalidatedAny;
+  }
+
+  /**
+   * A snippet run again reads its upstream variables in their current state. If a snippet below
+   * it mutated one of these variables in a previous run, the variable is not in the state a top
+   * to bottom execution gives: the variable is invalidated, so it is run again with its
+   * successors - the mutating snippet included. Repeated until no variable is invalidated.
+   */
+  private static void invalidateVariablesMutatedBelow(
+          final State state,
+          final DependencyGraph depGraph,
+          final DependencyIndex index,
+          final BiMap<HashCode, Integer> fingerprintToSnippetIdx,
+          final BitSet invalidated,
+          final BitSet snippetsIdxToRun) {
+    // the index of the last snippet that mutated the variable in a previous run, by variable
+    final Map<String, Integer> lastMutationIdx = new HashMap<>();
+    fingerprintToSnippetIdx.forEach((fingerprint, snippetIdx) -> {
+      for (final String variable : state.fingerprintToMutatedVariables.getOrDefault(fingerprint,
+                                                                                    Set.of())) {
+        lastMutationIdx.merge(variable, snippetIdx, Math::max);
+      }
+    });
+    if (lastMutationIdx.isEmpty()) {
+      return;
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int node = invalidated.nextSetBit(0);
+      for (; node >= 0; node = invalidated.nextSetBit(node + 1)) {
+        for (final String read : depGraph.dependencies.predecessors(index.name(node))) {
+          final int readNode = index.node(read);
+          final Integer mutationIdx = lastMutationIdx.get(read);
+          if (readNode >= 0 && !invalidated.get(readNode) && mutationIdx != null
+              && mutationIdx > index.snippetIdx(node)) {
+            index.invalidate(readNode, invalidated, snippetsIdxToRun);
+            changed = true;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiles the runs of consecutive declarations to evaluate in a single class per run, instead
+   * of one JShell evaluation per declaration. A declaration can join a run if it is a method or a
+   * type, and if it only references imports and the declarations of the run. Runs smaller than
+   * {@link #MIN_BATCH_SIZE} are not compiled. If the compilation of a run fails, its declarations
+   * are evaluated one by one: JShell gives their diagnostics. Compiled runs are cached on disk:
+   * they are not compiled again at the next start.
+   * Returns the results of the compiled declarations by snippet index.
+   */
+  private static Map<Integer, EvalResult> evalBatches(
+          final StaticParsing staticParsing,
+          final State state,
+          final DependencyGraph depGraph,
+          final BiMap<HashCode, Integer> fingerprintToSnippetIdx,
+          final Map<Integer, String> snippetIdxToSimpleName,
+          final BitSet snippetsIdxToRun) {
+    final List<String> imports = depGraph.importToSnippetIdx()
+                                         .values()
+                                         .stream()
+                                         .sorted()
+                                         .map(i -> staticParsing.snippets()
+                                                                .get(i)
+                                                                .completionInfo()
+                                                                .source())
+                                         .toList();
+    final Map<Integer, EvalResult> results = new HashMap<>();
+    final List<Integer> run = new ArrayList<>();
+    final Set<String> runMembers = new HashSet<>();
+    final Runnable evalRun = () -> {
+      if (run.size() >= MIN_BATCH_SIZE) {
+        final List<String> declarations = new ArrayList<>(run.size());
+        // the fingerprints of the declarations include the fingerprints of their predecessors
+        final Hasher cacheKey = FINGERPRINT_FUNCTION.newHasher();
+        for (final Integer i : run) {
+          cacheKey.putBytes(fingerprintToSnippetIdx.inverse().get(i).asBytes());
+          declarations.add(batchDeclaration(depGraph.simpleNameToMember()
+                                                    .get(snippetIdxToSimpleName.get(i)),
+                                            staticParsing.snippets()
+                                                         .get(i)
+                                                         .completionInfo()
+                                                         .source()));
+        }
+        final Optional<BatchResult> batchResult =
+                state.shell.evalBatch(imports, declarations, cacheKey.hash().toString());
+        if (batchResult.isPresent()) {
+          final Batch batch = new Batch(batchResult.get().importResult(),
+                                        run.stream()
+                                           .map(i -> fingerprintToSnippetIdx.inverse().get(i))
+                                           .collect(Collectors.toSet()));
+          for (int k = 0; k < run.size(); k++) {
+            results.put(run.get(k), batchResult.get().declarationResults().get(k));
+            state.fingerprintToBatch.put(fingerprintToSnippetIdx.inverse().get(run.get(k)), batch);
+          }
+        } else {
+          LOG.debug("Batch compilation failed. Evaluating the declarations one by one.");
+        }
+      }
+      run.clear();
+      runMembers.clear();
+    };
+    for (int i = 0; i < staticParsing.snippets().size(); i++) {
+      if (!staticParsing.snippets().get(i).type().equals(StaticSnippet.Type.JAVA)) {
+        continue;
+      }
+      final String simpleName = snippetIdxToSimpleName.get(i);
+      if (simpleName != null && depGraph.importToSnippetIdx().containsKey(simpleName)) {
+        // imports are compiled with every batch
+        continue;
+      }
+      final boolean batchable = simpleName != null && snippetsIdxToRun.get(i)
+                                && isBatchable(simpleName, depGraph);
+      if (!batchable) {
+        evalRun.run();
+        continue;
+      }
+      if (!canJoinRun(simpleName, depGraph, runMembers)) {
+        evalRun.run();
+        if (!canJoinRun(simpleName, depGraph, runMembers)) {
+          continue;
+        }
+      }
+      run.add(i);
+      runMembers.add(simpleName);
+    }
+    evalRun.run();
+    return results;
+  }
+
+  private static boolean isBatchable(final String simpleName, final DependencyGraph depGraph) {
+    final CtTypeMember member = depGraph.simpleNameToMember().get(simpleName);
+    final boolean isDeclaration = member instanceof CtType<?>
+                                  || (member instanceof CtMethod<?>
+                                      && !simpleName.startsWith(SYNTHETIC_METHOD_NAME));
+    if (!isDeclaration || depGraph.membersWithForwardReferences().contains(simpleName)) {
+      return false;
+    }
+    final Set<ModifierKind> modifiers = explicitModifiers(member);
+    return !modifiers.contains(ModifierKind.PRIVATE) && !modifiers.contains(ModifierKind.PROTECTED);
+  }
+
+  private static boolean canJoinRun(final String simpleName,
+                                    final DependencyGraph depGraph,
+                                    final Set<String> runMembers) {
+    for (final String predecessor : depGraph.dependencies().predecessors(simpleName)) {
+      if (!depGraph.importToSnippetIdx().containsKey(predecessor)
+          && !runMembers.contains(predecessor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the batch class is in a named package: its members must be public and static to be imported
+  private static String batchDeclaration(final CtTypeMember member, final String source) {
+    final Set<ModifierKind> modifiers = explicitModifiers(member);
+    return (modifiers.contains(ModifierKind.PUBLIC) ? "" : "public ")
+           + (modifiers.contains(ModifierKind.STATIC) ? "" : "static ")
+           + source;
+  }
+
+  private static Set<ModifierKind> explicitModifiers(final CtTypeMember member) {
+    return member.getExtendedModifiers()
+                 .stream()
+                 .filter(m -> !m.isImplicit())
+                 .map(CtExtendedModifier::getKind)
+                 .collect(Collectors.toSet());
+  }
+
+  private static void dropBatch(final State state, final Batch batch) {
+    for (final HashCode member : batch.members()) {
+      state.fingerprintToBatch.remove(member);
+    }
+    for (final SnippetEvent s : batch.importResult().events()) {
+      LOG.debug("Dropping outdated batch: {}", s.snippet().source().trim());
+      state.shell.drop(s.snippet());
+    }
+  }
+
+  /**
+   * Hashes the normalized source of a member with the names and the fingerprints of its
+   * predecessors: the fingerprint of a member changes when an upstream member changes.
+   */
+  private static HashCode fingerprint(final String normalizedSource,
+                                      final Set<String> predecessors,
+                                      final Map<String, HashCode> simpleNameToFingerprint) {
+    final Hasher hasher = FINGERPRINT_FUNCTION.newHasher();
+    hasher.putString(normalizedSource, StandardCharsets.UTF_8);
+    predecessors.stream().sorted().forEach(predecessor -> {
+      hasher.putString(predecessor, StandardCharsets.UTF_8);
+      final HashCode predecessorFingerprint = simpleNameToFingerprint.get(predecessor);
+      // without the fingerprint of a predecessor, its edits would not propagate downstream
+      checkState(predecessorFingerprint != null,
+                 "Predecessor %s is not fingerprinted yet",
+                 predecessor);
+      hasher.putBytes(predecessorFingerprint.asBytes());
+    });
+    return hasher.hash();
+  }
+
+  // the id of the snippet is in the first comment of the member
+  private static Integer snippetId(final CtTypeMember member) {
+    return Integer.valueOf(member.getComments().get(0).getContent());
   }
 
   private SourceClass buildSourceClass(final StaticParsing staticParsing,
@@ -300,12 +690,39 @@ public class GreedyInterpreter implements Interpreter {
     return new SourceClass(classCode, staticSnippetIdxToSnippet);
   }
 
-  private static DependencyGraph buildDependenciesGraph(CtClass<?> res) {
+  /**
+   * Builds the graph of the dependencies between the members of the notebook, and between the
+   * imports and the members. An import is a predecessor of the members whose source contains the
+   * simple name it imports - an on-demand import is a predecessor of all the members. Adding,
+   * editing or removing an import changes the fingerprint of these members only.
+   */
+  private static DependencyGraph buildDependenciesGraph(final CtClass<?> res,
+                                                        final SourceClass source) {
     final List<CtTypeMember> typeMembers = res.getTypeMembers();
     final MutableGraph<String> dependencies =
             GraphBuilder.directed().allowsSelfLoops(false).build();
     final Map<String, CtTypeMember> simpleNameToMember = new HashMap<>();
+    final Map<String, Integer> importToSnippetIdx = new HashMap<>();
+    final Map<String, String> importToImportedName = new HashMap<>();
+    final Set<String> onDemandImports = new HashSet<>();
+    // imports are added first: they apply to the whole notebook
+    final Map<Integer, Snippet> idxToSnippet = new TreeMap<>(source.staticSnippetIdxToSnippet());
+    for (final Map.Entry<Integer, Snippet> e : idxToSnippet.entrySet()) {
+      if (e.getValue() instanceof ImportSnippet importSnippet) {
+        final String importName = importName(importSnippet);
+        // a duplicated import is not added again
+        if (dependencies.addNode(importName)) {
+          importToSnippetIdx.put(importName, e.getKey());
+          if (isOnDemand(importSnippet)) {
+            onDemandImports.add(importName);
+          } else {
+            importToImportedName.put(importName, importSnippet.name());
+          }
+        }
+      }
+    }
     final Set<String> forwardReferences = new HashSet<>();
+    final Set<String> membersWithForwardReferences = new HashSet<>();
     // order means top to bottom order
     final BiConsumer<String, String> orderSafePutEdge = (member, reference) -> {
       if (dependencies.nodes().contains(reference)) {
@@ -315,6 +732,7 @@ public class GreedyInterpreter implements Interpreter {
         }
       } else {
         forwardReferences.add(reference);
+        membersWithForwardReferences.add(member);
       }
     };
     for (int i = 1; i < typeMembers.size(); i++) {
@@ -322,6 +740,13 @@ public class GreedyInterpreter implements Interpreter {
       final String memberSimpleName = member.getSimpleName();
       dependencies.addNode(memberSimpleName);
       simpleNameToMember.put(memberSimpleName, member);
+      final Set<String> identifiers = identifiers(idxToSnippet.get(snippetId(member)).source());
+      importToImportedName.forEach((importName, importedName) -> {
+        if (identifiers.contains(importedName)) {
+          dependencies.putEdge(importName, memberSimpleName);
+        }
+      });
+      onDemandImports.forEach(importName -> dependencies.putEdge(importName, memberSimpleName));
       member.accept(new CtScanner() {
         @Override
         public <T> void visitCtFieldReference(CtFieldReference<T> reference) {
@@ -367,7 +792,124 @@ public class GreedyInterpreter implements Interpreter {
       });
     }
 
-    return new DependencyGraph(dependencies, simpleNameToMember, forwardReferences);
+    return new DependencyGraph(dependencies,
+                               simpleNameToMember,
+                               importToSnippetIdx,
+                               forwardReferences,
+                               membersWithForwardReferences);
+  }
+
+  private static String importName(final ImportSnippet importSnippet) {
+    return importSnippet.isStatic() ? "import static " + importSnippet.fullname()
+                                    : "import " + importSnippet.fullname();
+  }
+
+  private static boolean isOnDemand(final ImportSnippet importSnippet) {
+    return importSnippet.subKind() == Snippet.SubKind.TYPE_IMPORT_ON_DEMAND_SUBKIND
+           || importSnippet.subKind() == Snippet.SubKind.STATIC_IMPORT_ON_DEMAND_SUBKIND;
+  }
+
+  private static Set<String> identifiers(final StaticParsing staticParsing) {
+    final Set<String> identifiers = new HashSet<>();
+    for (final StaticSnippet s : staticParsing.snippets()) {
+      if (s.type().equals(StaticSnippet.Type.JAVA) && s.completionInfo().source() != null) {
+        identifiers.addAll(identifiers(s.completionInfo().source()));
+      }
+    }
+    return identifiers;
+  }
+
+  // conservative: identifiers in strings and comments are included
+  private static Set<String> identifiers(final String snippetSource) {
+    return NON_IDENTIFIER_CHARS.splitAsStream(snippetSource)
+                               .filter(s -> !s.isEmpty())
+                               .collect(Collectors.toSet());
+  }
+
+  /**
+   * Returns the state of the notebook. If the shell of the notebook has too many dead snippets,
+   * the shell is replaced by a fresh one: the new state is empty, so all the live snippets are
+   * evaluated again in the new shell.
+   * If project classes referenced by the notebook changed on the disk, the shell is replaced by a
+   * fresh one that loads the new classes, and the cached results are kept: the snippets
+   * referencing the changed classes are evaluated again, with their successors.
+   * A shell cannot reload classes: JShell does not load a snippet class again when its bytecode
+   * did not change, so a snippet evaluated again would stay linked to the previous classes.
+   */
+  private State stateFor(final Path path) {
+    final State state = fileToState.get(path);
+    if (state == null) {
+      final State newState = newState(path);
+      fileToState.put(path, newState);
+      return newState;
+    }
+    final State newState;
+    if (!state.changedClasses.isEmpty()) {
+      LOG.info("Replacing shell for file {}: project classes changed: {}",
+               path.getFileName(),
+               state.changedClasses);
+      newState = reloadedState(path, state);
+    } else if (state.shell.churn() >= compactionThreshold) {
+      LOG.info("Compacting shell for file {}: {} snippets, {} dropped or overwritten.",
+               path.getFileName(),
+               state.shell.snippetCount(),
+               state.shell.churn());
+      COMPACTIONS.increment();
+      newState = newState(path);
+    } else {
+      return state;
+    }
+    fileToState.put(path, newState);
+    state.shell.close();
+    return newState;
+  }
+
+  private State newState(final Path path) {
+    final PowerJShell shell = newShell(path);
+    final String notebook = path.toString();
+    Metrics.gauge(SHELL_AGE_METRIC,
+                  "Age of the shell of the notebook.",
+                  () -> shell.age().toMillis() / 1000.,
+                  "notebook",
+                  notebook);
+    Metrics.gauge(SHELL_SNIPPETS_METRIC,
+                  "Snippets in the shell of the notebook, dropped and overwritten included.",
+                  shell::snippetCount,
+                  "notebook",
+                  notebook);
+    return new State(new HashMap<>(),
+                     new HashMap<>(),
+                     new HashMap<>(),
+                     new HashMap<>(),
+                     new HashSet<>(),
+                     new HashSet<>(),
+                     ConcurrentHashMap.newKeySet(),
+                     new AtomicReference<>(Set.of()),
+                     shell);
+  }
+
+  /**
+   * Returns a state with a new shell that keeps the cached results of the state. The snippets of
+   * the cached results are not in the new shell: they are evaluated again when a snippet to run
+   * depends on them.
+   */
+  private State reloadedState(final Path path, final State state) {
+    final PowerJShell shell = newShell(path);
+    final Set<HashCode> notInShell = new HashSet<>(state.fingerprintToEvalResult.keySet());
+    return new State(state.fingerprintToEvalResult,
+                     state.fingerprintToMutatedVariables,
+                     state.simpleNameToFingerprint,
+                     new HashMap<>(),
+                     notInShell,
+                     new HashSet<>(state.changedClasses),
+                     ConcurrentHashMap.newKeySet(),
+                     state.identifiers,
+                     shell);
+  }
+
+  private static void removeGauges(final Path path) {
+    Metrics.removeGauge(SHELL_AGE_METRIC, "notebook", path.toString());
+    Metrics.removeGauge(SHELL_SNIPPETS_METRIC, "notebook", path.toString());
   }
 
   private PowerJShell newShell(final Path path) {
@@ -419,28 +961,97 @@ public class GreedyInterpreter implements Interpreter {
                               .append(BLOCK_SUFFIX);
   }
 
+  @Override
+  public void stop(final Path path) {
+    final State state = fileToState.remove(path);
+    if (state != null && state.shell != null) {
+      state.shell.close();
+      removeGauges(path);
+    }
+  }
+
+  @Override
+  public Set<Path> reloadClasses(final Set<String> changedClasses) {
+    final Set<String> names = simpleNames(changedClasses);
+    final Set<Path> referencing = new HashSet<>();
+    fileToState.forEach((path, state) -> {
+      if (!Collections.disjoint(state.identifiers.get(), names)) {
+        // the shell is replaced by the next interpretation - the shell may be evaluating
+        state.changedClasses.addAll(changedClasses);
+        referencing.add(path);
+      }
+    });
+    return Set.copyOf(referencing);
+  }
+
+  /**
+   * Returns the simple names of the classes, and of their enclosing classes. A snippet references
+   * a class by its simple name, or by its qualified name, that contains the simple name.
+   */
+  private static Set<String> simpleNames(final Set<String> binaryNames) {
+    final Set<String> names = new HashSet<>();
+    for (final String binaryName : binaryNames) {
+      final String name = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+      for (final String part : name.split("\\$")) {
+        // anonymous and local classes are not referenced by name
+        if (!part.isEmpty() && Character.isJavaIdentifierStart(part.charAt(0))) {
+          names.add(part);
+        }
+      }
+    }
+    return names;
+  }
+
   @Override
   public void stop() {
-    for (final Path path : fileToState.keySet()) {
-      final PowerJShell sh = fileToState.get(path).shell;
+    for (final Map.Entry<Path, State> e : fileToState.entrySet()) {
+      final PowerJShell sh = e.getValue().shell;
       if (sh != null) {
         sh.close();
+        removeGauges(e.getKey());
       }
-      fileToState.remove(path);
     }
+    fileToState.clear();
   }
 
   private record DependencyGraph(MutableGraph<String> dependencies,
                                  Map<String, CtTypeMember> simpleNameToMember,
-                                 Set<String> forwardReferences) {
+                                 Map<String, Integer> importToSnippetIdx,
+                                 Set<String> forwardReferences,
+                                 Set<String> membersWithForwardReferences) {
+
+    private int snippetIdx(final String name) {
+      final Integer importIdx = importToSnippetIdx.get(name);
+      return importIdx != null ? importIdx : snippetId(simpleNameToMember.get(name));
+    }
   }
 
   private record SourceClass(String classCode,
                              Map<Integer, Snippet> staticSnippetIdxToSnippet) {
   }
 
-  private record State(Map<String, EvalResult> fingerprintToEvalResult,
-                       Map<String, String> simpleNameToFingerprint,
+  private record State(Map<HashCode, EvalResult> fingerprintToEvalResult,
+                       Map<HashCode, Set<String>> fingerprintToMutatedVariables,
+                       Map<String, HashCode> simpleNameToFingerprint,
+                       Map<HashCode, Batch> fingerprintToBatch,
+                       // cached results of snippets evaluated in a previous shell of the notebook
+                       Set<HashCode> notInShell,
+                       // project classes reloaded by the shell: the snippets referencing them are
+                       // evaluated again by the next interpretation
+                       Set<String> reloadedClasses,
+                       // project classes changed on the disk since the shell started
+                       Set<String> changedClasses,
+                       // the identifiers of the notebook - read by class reloads
+                       AtomicReference<Set<String>> identifiers,
                        PowerJShell shell) {
   }
+
+  /**
+   * Declarations compiled in a single class.
+   *
+   * @param importResult the result of the import of the class in the shell
+   * @param members      the fingerprints of the declarations
+   */
+  private record Batch(EvalResult importResult, Set<HashCode> members) {
+  }
 }
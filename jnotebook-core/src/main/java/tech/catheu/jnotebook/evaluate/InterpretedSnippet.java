@@ -10,5 +10,11 @@ package tech.catheu.jnotebook.evaluate;
 import tech.catheu.jnotebook.jshell.EvalResult;
 import tech.catheu.jnotebook.parse.StaticSnippet;
 
-public record InterpretedSnippet(StaticSnippet staticSnippet, EvalResult evalResult) {
+/**
+ * @param fromCache true if the snippet was not evaluated again: the result of a previous
+ *                  evaluation is reused
+ */
+public record InterpretedSnippet(StaticSnippet staticSnippet,
+                                 EvalResult evalResult,
+                                 boolean fromCache) {
 }
@@ -9,9 +9,25 @@ package tech.catheu.jnotebook.evaluate;
 
 import tech.catheu.jnotebook.parse.StaticParsing;
 
+import java.nio.file.Path;
+import java.util.Set;
+
 public interface Interpreter {
 
   Interpreted interpret(final StaticParsing staticParsing);
 
+  /**
+   * Releases the shell and the state of the notebook at path.
+   */
+  void stop(final Path path);
+
+  /**
+   * Replaces the shells of the notebooks that reference project classes changed on the disk.
+   * Returns the notebooks to interpret again.
+   *
+   * @param changedClasses the binary names of the changed classes
+   */
+  Set<Path> reloadClasses(final Set<String> changedClasses);
+
   void stop();
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.evaluate;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import spoon.reflect.code.*;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtTypeMember;
+import spoon.reflect.reference.CtExecutableReference;
+import spoon.reflect.reference.CtFieldReference;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.CtScanner;
+
+import java.util.*;
+
+/**
+ * Finds the notebook variables a member may mutate: variables that are assigned or incremented,
+ * whose fields or array elements are assigned, whose methods are called, or that are passed as
+ * arguments. The calls to the methods of the notebook are followed.
+ * The analysis is syntactic and conservative. The exceptions are the methods that are known to
+ * not mutate their receiver or their arguments - including the rendering helpers of Nb - and the
+ * immutable types: their variables can only be reassigned.
+ * A variable initialized with another variable is an alias: mutating it mutates the other one.
+ * Other aliases are not tracked.
+ */
+class MutationAnalysis {
+
+  private static final Set<String> NON_MUTATING_METHODS =
+          Set.of("charAt", "contains", "containsKey", "containsValue", "equals", "format", "get",
+                 "getOrDefault", "hashCode", "indexOf", "isEmpty", "length", "print", "printf",
+                 "println", "size", "stream", "toString", "valueOf");
+  // static methods known to not mutate their arguments, by qualified name of their type
+  private static final Map<String, Set<String>> NON_MUTATING_STATIC_METHODS =
+          Map.of("java.util.List", Set.of("copyOf", "of"),
+                 "java.util.Set", Set.of("copyOf", "of"),
+                 "java.util.Map", Set.of("copyOf", "entry", "of"),
+                 "java.util.Objects",
+                 Set.of("checkIndex", "deepEquals", "equals", "hash", "hashCode", "isNull",
+                        "nonNull", "requireNonNull", "requireNonNullElse", "toIdentityString",
+                        "toString"),
+                 "tech.catheu.jnotebook.Nb",
+                 Set.of("col", "flame", "flameDiff", "grid", "html", "plotly", "row", "vega"));
+  private static final Set<String> IMMUTABLE_TYPES =
+          Set.of("java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+                 "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+                 "java.lang.Double", "java.math.BigInteger", "java.math.BigDecimal");
+
+  private final Map<String, CtTypeMember> simpleNameToMember;
+  private final String notebookClassName;
+  private final Map<String, Set<String>> memberToMutatedVariables = new HashMap<>();
+
+  /**
+   * @param notebookClassName the simple name of the class that wraps the notebook members
+   */
+  MutationAnalysis(final Map<String, CtTypeMember> simpleNameToMember,
+                   final String notebookClassName) {
+    this.simpleNameToMember = simpleNameToMember;
+    this.notebookClassName = notebookClassName;
+  }
+
+  /**
+   * Returns the simple names of the notebook variables the member may mutate, except the member
+   * itself.
+   */
+  Set<String> mutatedVariables(final String memberSimpleName) {
+    final Set<String> cached = memberToMutatedVariables.get(memberSimpleName);
+    if (cached != null) {
+      return cached;
+    }
+    final CtTypeMember member = simpleNameToMember.get(memberSimpleName);
+    if (member == null) {
+      return Set.of();
+    }
+    // recursive calls see an empty set
+    memberToMutatedVariables.put(memberSimpleName, Set.of());
+    final Set<String> mutated = new HashSet<>();
+    final Set<String> calledMethods = new HashSet<>();
+    member.accept(new MutationScanner(mutated, calledMethods));
+    for (final String calledMethod : calledMethods) {
+      mutated.addAll(mutatedVariables(calledMethod));
+    }
+    for (final String variable : List.copyOf(mutated)) {
+      addAliased(variable, mutated);
+    }
+    mutated.remove(memberSimpleName);
+    final Set<String> result = Set.copyOf(mutated);
+    memberToMutatedVariables.put(memberSimpleName, result);
+    return result;
+  }
+
+  private void addAliased(final String variable, final Set<String> mutated) {
+    String aliased = aliasedVariable(variable);
+    while (aliased != null && mutated.add(aliased)) {
+      aliased = aliasedVariable(aliased);
+    }
+  }
+
+  // returns the variable the variable is initialized with, if any
+  private @Nullable String aliasedVariable(final String variable) {
+    if (simpleNameToMember.get(variable) instanceof CtField<?> field
+        && field.getDefaultExpression() instanceof CtFieldAccess<?> access
+        && isNotebookVariable(access.getVariable())
+        && !isImmutable(access.getVariable().getType())) {
+      return access.getVariable().getSimpleName();
+    }
+    return null;
+  }
+
+  private boolean isNotebookVariable(final CtFieldReference<?> reference) {
+    return reference.getDeclaringType() != null && reference.getDeclaringType()
+                                                            .getSimpleName()
+                                                            .equals(notebookClassName);
+  }
+
+  private static boolean isImmutable(final @Nullable CtTypeReference<?> type) {
+    return type != null
+           && (type.isPrimitive() || IMMUTABLE_TYPES.contains(type.getQualifiedName()));
+  }
+
+  private static boolean isNonMutatingStaticMethod(final CtInvocation<?> invocation) {
+    // without classpath, the declaring type of a method may only be known by the type access
+    CtTypeReference<?> declaringType = invocation.getExecutable().getDeclaringType();
+    if (declaringType == null && invocation.getTarget() instanceof CtTypeAccess<?> access) {
+      declaringType = access.getAccessedType();
+    }
+    if (declaringType == null) {
+      return false;
+    }
+    // types of the default imports of the shell are not resolved: their name is not qualified
+    final String typeName = declaringType.getQualifiedName();
+    for (final Map.Entry<String, Set<String>> e : NON_MUTATING_STATIC_METHODS.entrySet()) {
+      if ((e.getKey().equals(typeName) || e.getKey().endsWith("." + typeName))
+          && e.getValue().contains(invocation.getExecutable().getSimpleName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the notebook variable an expression is accessed through, eg data for
+   * data.points[0].x. Returns null if the expression is not accessed through a notebook variable.
+   */
+  private @Nullable CtFieldReference<?> rootVariable(final @Nullable CtExpression<?> expression) {
+    CtFieldReference<?> root = null;
+    CtExpression<?> current = expression;
+    while (current != null) {
+      if (current instanceof CtFieldAccess<?> access && isNotebookVariable(access.getVariable())) {
+        root = access.getVariable();
+      }
+      current = current instanceof CtTargetedExpression<?, ?> targeted ? targeted.getTarget()
+                                                                       : null;
+    }
+    return root;
+  }
+
+  private class MutationScanner extends CtScanner {
+    private final Set<String> mutated;
+    private final Set<String> calledMethods;
+
+    private MutationScanner(final Set<String> mutated, final Set<String> calledMethods) {
+      this.mutated = mutated;
+      this.calledMethods = calledMethods;
+    }
+
+    @Override
+    public <T, A extends T> void visitCtAssignment(final CtAssignment<T, A> assignment) {
+      addAssigned(assignment.getAssigned());
+      super.visitCtAssignment(assignment);
+    }
+
+    @Override
+    public <T, A extends T> void visitCtOperatorAssignment(
+            final CtOperatorAssignment<T, A> assignment) {
+      addAssigned(assignment.getAssigned());
+      super.visitCtOperatorAssignment(assignment);
+    }
+
+    @Override
+    public <T> void visitCtUnaryOperator(final CtUnaryOperator<T> operator) {
+      switch (operator.getKind()) {
+        case PREINC, PREDEC, POSTINC, POSTDEC -> addAssigned(operator.getOperand());
+        default -> {
+        }
+      }
+      super.visitCtUnaryOperator(operator);
+    }
+
+    @Override
+    public <T> void visitCtInvocation(final CtInvocation<T> invocation) {
+      final CtExecutableReference<T> executable = invocation.getExecutable();
+      if (executable.getDeclaringType() != null && executable.getDeclaringType()
+                                                             .getSimpleName()
+                                                             .equals(notebookClassName)) {
+        calledMethods.add(executable.getSimpleName());
+      }
+      if (!NON_MUTATING_METHODS.contains(executable.getSimpleName())
+          && !isNonMutatingStaticMethod(invocation)) {
+        addMutable(invocation.getTarget());
+        invocation.getArguments().forEach(this::addMutable);
+      }
+      super.visitCtInvocation(invocation);
+    }
+
+    @Override
+    public <T> void visitCtConstructorCall(final CtConstructorCall<T> constructorCall) {
+      constructorCall.getArguments().forEach(this::addMutable);
+      super.visitCtConstructorCall(constructorCall);
+    }
+
+    private void addAssigned(final CtExpression<?> assigned) {
+      final CtFieldReference<?> root = rootVariable(assigned);
+      if (root != null) {
+        mutated.add(root.getSimpleName());
+      }
+    }
+
+    private void addMutable(final @Nullable CtExpression<?> expression) {
+      final CtFieldReference<?> root = rootVariable(expression);
+      if (root != null && !isImmutable(root.getType())) {
+        mutated.add(root.getSimpleName());
+      }
+    }
+  }
+}
@@ -18,15 +18,18 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SimpleInterpreter implements Interpreter {
 
   private static final Logger LOG = LoggerFactory.getLogger(SimpleInterpreter.class);
 
-  private final Map<Path, PowerJShell> fileToShell = new HashMap();
+  private final Map<Path, PowerJShell> fileToShell = new ConcurrentHashMap<>();
+  // notebooks whose shell may use project classes that changed on the disk
+  private final Set<Path> outdatedShells = ConcurrentHashMap.newKeySet();
   private final ShellProvider shellProvider;
 
   public SimpleInterpreter(final ShellProvider shellProvider) {
@@ -34,16 +37,19 @@ public class SimpleInterpreter implements Interpreter {
   }
 
   public Interpreted interpret(final StaticParsing staticParsing) {
+    if (outdatedShells.remove(staticParsing.path())) {
+      stop(staticParsing.path());
+    }
     final PowerJShell shell =
             fileToShell.computeIfAbsent(staticParsing.path(), this::newShell);
     final List<InterpretedSnippet> interpretedSnippets = new ArrayList<>();
     for (StaticSnippet s : staticParsing.snippets()) {
       if (s.type().equals(StaticSnippet.Type.JAVA)) {
         final EvalResult res = shell.eval(s.completionInfo().source());
-        interpretedSnippets.add(new InterpretedSnippet(s, res));
+        interpretedSnippets.add(new InterpretedSnippet(s, res, false));
       } else {
         // magic interpretation not implemented
-        interpretedSnippets.add(new InterpretedSnippet(s, null));
+        interpretedSnippets.add(new InterpretedSnippet(s, null, false));
       }
     }
 
@@ -58,6 +64,22 @@ public class SimpleInterpreter implements Interpreter {
     return shellProvider.getShell();
   }
 
+  @Override
+  public void stop(final Path path) {
+    final PowerJShell shell = fileToShell.remove(path);
+    if (shell != null) {
+      shell.close();
+    }
+  }
+
+  @Override
+  public Set<Path> reloadClasses(final Set<String> changedClasses) {
+    // the sources of the notebooks are not kept: all the shells are replaced
+    // the shells are replaced by the next interpretation - a shell may be evaluating
+    outdatedShells.addAll(fileToShell.keySet());
+    return Set.copyOf(fileToShell.keySet());
+  }
+
   @Override
   public void stop() {
     fileToShell.values().forEach(PowerJShell::close);
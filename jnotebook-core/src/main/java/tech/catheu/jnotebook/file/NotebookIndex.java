@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.file;
+
+import io.methvin.watcher.DirectoryChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * The notebooks in a folder. The folder is walked once, then the listing is maintained from the
+ * change events of the folder watcher.
+ */
+public class NotebookIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NotebookIndex.class);
+  private static final String JSHELL_SUFFIX = ".jsh";
+
+  private final Path root;
+  private final int maxDepth;
+  private final NavigableSet<Path> notebooks = new ConcurrentSkipListSet<>();
+  // immutable snapshot of the listing - replaced when the listing changes
+  private volatile List<Path> snapshot = List.of();
+
+  public NotebookIndex(final Path root, final int maxDepth) {
+    this.root = root;
+    this.maxDepth = maxDepth;
+    rescan();
+  }
+
+  /**
+   * Returns the sorted notebook paths. The same list instance is returned until the listing
+   * changes.
+   */
+  public List<Path> notebooks() {
+    return snapshot;
+  }
+
+  public synchronized void update(final DirectoryChangeEvent event) {
+    if (event.eventType() == DirectoryChangeEvent.EventType.OVERFLOW) {
+      // events were lost
+      rescan();
+      return;
+    }
+    final Path path = relativeToRoot(event.path());
+    boolean changed = false;
+    switch (event.eventType()) {
+      case CREATE -> {
+        if (Files.isDirectory(path)) {
+          // a folder moved in the root
+          changed = addAll(path, maxDepth - root.relativize(path).getNameCount());
+        } else if (isNotebook(path)) {
+          changed = notebooks.add(path);
+        }
+      }
+      case MODIFY -> changed = isNotebook(path) && notebooks.add(path);
+      // the deleted path may be a folder
+      case DELETE -> changed = notebooks.removeIf(p -> p.startsWith(path));
+      default -> {
+      }
+    }
+    if (changed) {
+      snapshot = List.copyOf(notebooks);
+    }
+  }
+
+  private synchronized void rescan() {
+    notebooks.clear();
+    addAll(root, maxDepth);
+    snapshot = List.copyOf(notebooks);
+  }
+
+  private boolean addAll(final Path folder, final int depth) {
+    if (depth < 0) {
+      return false;
+    }
+    try (final Stream<Path> files = Files.find(folder,
+                                               depth,
+                                               (path, attributes) -> attributes.isRegularFile() && isNotebook(
+                                                       path))) {
+      return files.map(notebooks::add).reduce(false, Boolean::logicalOr);
+    } catch (IOException e) {
+      LOG.error("Failed listing notebooks in {}: {}", folder, e.getMessage());
+      return false;
+    }
+  }
+
+  // events paths may be absolute - the listing keeps the paths as the user passed the root
+  private Path relativeToRoot(final Path eventPath) {
+    if (eventPath.isAbsolute() == root.isAbsolute()) {
+      return eventPath;
+    }
+    return root.resolve(root.toAbsolutePath().relativize(eventPath.toAbsolutePath()));
+  }
+
+  private static boolean isNotebook(final Path path) {
+    return path.toString().endsWith(JSHELL_SUFFIX);
+  }
+}
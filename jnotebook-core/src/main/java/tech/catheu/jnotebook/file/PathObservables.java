@@ -9,26 +9,128 @@ package tech.catheu.jnotebook.file;
 
 import io.methvin.watcher.DirectoryChangeEvent;
 import io.methvin.watcher.DirectoryWatcher;
+import io.methvin.watcher.hashing.FileHash;
+import io.methvin.watcher.hashing.FileHasher;
+import io.methvin.watcher.visitor.FileTreeVisitor;
 import io.reactivex.rxjava3.core.Observable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.function.Predicate;
 
 public final class PathObservables {
 
   private static final Logger LOG = LoggerFactory.getLogger(PathObservables.class);
 
-  public static Observable<DirectoryChangeEvent> of(final Path path) {
-    return Observable.create(subscriber -> DirectoryWatcher.builder()
-                                                           .path(path)
-                                                           .listener(e -> {
-                                                             LOG.info(
-                                                                     "Change detected in file: {}",
-                                                                     e.path());
-                                                             subscriber.onNext(e);
-                                                           })
-                                                           .build()
-                                                           .watch());
+  /**
+   * How the watcher detects that a file really changed.
+   */
+  public enum FileHashing {
+    /**
+     * Hash of the file content. A file saved without change does not emit an event.
+     */
+    CONTENT,
+    /**
+     * Last modified time of the file. Does not read the files.
+     */
+    MTIME,
+    /**
+     * No hashing. Every file system event is emitted.
+     */
+    NONE
+  }
+
+  // files that are not hashed all have the same hash: their modifications are not emitted
+  private static final FileHash NOT_HASHED = FileHash.fromLong(0L);
+
+  /**
+   * Watches the path, up to maxDepth levels of folders.
+   * Only the files matching hashedFiles are hashed: the modifications of the other files are not
+   * emitted. Their creations and deletions are.
+   */
+  public static Observable<DirectoryChangeEvent> of(final Path path, final FileHashing hashing,
+                                                    final int maxDepth,
+                                                    final Predicate<Path> hashedFiles) {
+    final DirectoryWatcher.Builder builder =
+            DirectoryWatcher.builder()
+                            .path(path)
+                            .fileTreeVisitor(new DepthLimitedFileTreeVisitor(path, maxDepth));
+    switch (hashing) {
+      case CONTENT -> builder.fileHasher(filtered(FileHasher.DEFAULT_FILE_HASHER, hashedFiles));
+      case MTIME -> builder.fileHasher(filtered(FileHasher.LAST_MODIFIED_TIME, hashedFiles));
+      case NONE -> builder.fileHashing(false);
+    }
+    return Observable.create(subscriber -> builder.listener(e -> {
+      LOG.info("Change detected in file: {}", e.path());
+      subscriber.onNext(e);
+    }).build().watch());
+  }
+
+  private static FileHasher filtered(final FileHasher hasher, final Predicate<Path> hashedFiles) {
+    return file -> hashedFiles.test(file) ? hasher.hash(file) : NOT_HASHED;
+  }
+
+  /**
+   * Visits the files of the watched tree, up to a max depth from the root. Also used by the watcher
+   * to register the folders created below the root: the depth is always relative to the root.
+   */
+  private static class DepthLimitedFileTreeVisitor implements FileTreeVisitor {
+    private final Path root;
+    private final int maxDepth;
+
+    private DepthLimitedFileTreeVisitor(final Path root, final int maxDepth) {
+      this.root = root.toAbsolutePath().normalize();
+      this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public void recursiveVisitFiles(final Path file, final Callback onDirectory,
+                                    final Callback onFile) throws IOException {
+      final Path absoluteFile = file.toAbsolutePath().normalize();
+      // the relative path of the root itself is the empty path, with 1 name
+      final int depth = absoluteFile.startsWith(root) && !absoluteFile.equals(root) ?
+              root.relativize(absoluteFile).getNameCount() :
+              0;
+      if (depth > maxDepth) {
+        return;
+      }
+      Files.walkFileTree(file,
+                         EnumSet.noneOf(FileVisitOption.class),
+                         maxDepth - depth,
+                         new SimpleFileVisitor<>() {
+                           @Override
+                           public FileVisitResult preVisitDirectory(final Path dir,
+                                                                    final BasicFileAttributes attrs) throws IOException {
+                             onDirectory.call(dir);
+                             return FileVisitResult.CONTINUE;
+                           }
+
+                           @Override
+                           public FileVisitResult visitFile(final Path file,
+                                                            final BasicFileAttributes attrs) throws IOException {
+                             // at max depth, folders are visited as files
+                             if (attrs.isDirectory()) {
+                               return FileVisitResult.CONTINUE;
+                             }
+                             onFile.call(file);
+                             return FileVisitResult.CONTINUE;
+                           }
+
+                           @Override
+                           public FileVisitResult visitFileFailed(final Path file,
+                                                                  final IOException exc) {
+                             LOG.warn("Failed to visit {}: {}", file, exc.getMessage());
+                             return FileVisitResult.CONTINUE;
+                           }
+                         });
+    }
   }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Compiles declarations in a single class with javac. A single compilation is much faster than
+ * one JShell evaluation per declaration.
+ * The declarations must be public and static: the class is in a named package, the shell accesses
+ * them with a static import.
+ * If a cache directory is given, the classes are compiled in a directory of the cache named after
+ * the key of the batch, and are not compiled again while the key does not change. The key combines
+ * the key given by the caller, the sources, the jdk version and the classpath.
+ * Entries that were not used for a while are deleted when the first compiler of the process using
+ * the cache directory starts.
+ */
+class BatchCompiler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchCompiler.class);
+
+  static final String PACKAGE = "jnotebook_batch";
+  private static final String CLASS_PREFIX = "Batch_";
+  private static final String PARTIAL_ENTRY_SUFFIX = ".tmp";
+  // a cache entry is marked as used by its modification time
+  private static final Duration UNUSED_ENTRY_TTL = Duration.ofDays(30);
+  // a partial entry this old was left by a process stopped during a compilation
+  private static final Duration PARTIAL_ENTRY_TTL = Duration.ofHours(1);
+  private static final Set<Path> PRUNED_CACHE_DIRS = ConcurrentHashMap.newKeySet();
+
+  private final String classpath;
+  private final @Nullable Path cacheDir;
+  private final Path tempDir;
+  // a class can only be loaded once by the shell - keys already used are compiled again
+  private final Set<String> usedKeys = new HashSet<>();
+  private int tempBatchCount = 0;
+  private byte[] classpathHash = null;
+
+  /**
+   * @param cacheDir the cache of compiled classes. If null, classes are not cached.
+   */
+  BatchCompiler(final String classpath, final @Nullable Path cacheDir) {
+    this.classpath = classpath;
+    try {
+      this.tempDir = Files.createTempDirectory("jnotebook_batch");
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to create the batch compilation directory", e);
+    }
+    this.cacheDir = cacheDir != null && createDirectories(cacheDir) ? cacheDir : null;
+    if (this.cacheDir != null && PRUNED_CACHE_DIRS.add(this.cacheDir.toAbsolutePath())) {
+      prune(this.cacheDir);
+    }
+  }
+
+  private static void prune(final Path cacheDir) {
+    final long now = System.currentTimeMillis();
+    try (final Stream<Path> entries = Files.list(cacheDir)) {
+      final long deleted = entries.map(Path::toFile)
+                                  .filter(entry -> now - entry.lastModified() > ttl(entry))
+                                  .filter(FileUtils::deleteQuietly)
+                                  .count();
+      if (deleted > 0) {
+        LOG.info("Deleted {} unused entries from the cache of compiled declarations.", deleted);
+      }
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warn("Failed to prune the cache of compiled declarations {}: {}",
+               cacheDir,
+               e.getMessage());
+    }
+  }
+
+  private static long ttl(final File entry) {
+    return (entry.getName().contains(PARTIAL_ENTRY_SUFFIX) ? PARTIAL_ENTRY_TTL
+                                                           : UNUSED_ENTRY_TTL).toMillis();
+  }
+
+  private static boolean createDirectories(final Path dir) {
+    try {
+      Files.createDirectories(dir);
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Failed to create folder {} for compiled declarations: {}", dir, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Returns the compiled class, or null if the compilation failed.
+   *
+   * @param imports the import statements
+   * @param key     identifies the declarations and everything they depend on
+   */
+  @Nullable CompiledBatch compile(final List<String> imports,
+                                  final List<String> declarations,
+                                  final String key) {
+    final String fullKey = fullKey(imports, declarations, key);
+    if (cacheDir != null && usedKeys.add(fullKey)) {
+      final Path entry = cacheDir.resolve(fullKey);
+      final String className = CLASS_PREFIX + fullKey;
+      if (Files.isDirectory(entry)) {
+        // not pruned while it is used
+        if (!entry.toFile().setLastModified(System.currentTimeMillis())) {
+          LOG.debug("Failed to mark cache entry {} as used", entry);
+        }
+        return new CompiledBatch(PACKAGE + "." + className, entry, true);
+      }
+      // compile in a temporary folder then move: a partially written entry is never used
+      final Path partialEntry =
+              cacheDir.resolve(fullKey + PARTIAL_ENTRY_SUFFIX + System.nanoTime());
+      if (!createDirectories(partialEntry)
+          || !compile(imports, declarations, className, partialEntry)) {
+        FileUtils.deleteQuietly(partialEntry.toFile());
+        return null;
+      }
+      try {
+        Files.move(partialEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // another shell may have written the entry concurrently
+        FileUtils.deleteQuietly(partialEntry.toFile());
+        if (!Files.isDirectory(entry)) {
+          LOG.warn("Failed to write compiled declarations in cache: {}", e.getMessage());
+          return null;
+        }
+      }
+      return new CompiledBatch(PACKAGE + "." + className, entry, false);
+    }
+
+    final String className = CLASS_PREFIX + tempBatchCount++;
+    if (!compile(imports, declarations, className, tempDir)) {
+      return null;
+    }
+    return new CompiledBatch(PACKAGE + "." + className, tempDir, false);
+  }
+
+  private boolean compile(final List<String> imports,
+                          final List<String> declarations,
+                          final String className,
+                          final Path outputDir) {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      LOG.warn("No java compiler available. Declarations are not compiled in batch.");
+      return false;
+    }
+    final String source = source(imports, declarations, className);
+    final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    final List<String> options = List.of("-classpath",
+                                         classpath,
+                                         "-d",
+                                         outputDir.toString(),
+                                         "-proc:none",
+                                         "-nowarn");
+    final JavaFileObject sourceFile = new SourceFile(className, source);
+    final JavaCompiler.CompilationTask task =
+            compiler.getTask(null, null, diagnostics, options, null, List.of(sourceFile));
+    if (!task.call()) {
+      if (LOG.isDebugEnabled()) {
+        diagnostics.getDiagnostics()
+                   .stream()
+                   .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                   .forEach(d -> LOG.debug("Batch compilation error: {}",
+                                           d.getMessage(Locale.ENGLISH)));
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private static String source(final List<String> imports,
+                               final List<String> declarations,
+                               final String className) {
+    final StringBuilder source = new StringBuilder("package ").append(PACKAGE).append(";\n");
+    imports.forEach(i -> source.append(i).append("\n"));
+    source.append("public final class ").append(className).append(" {\n");
+    source.append("private ").append(className).append("() {}\n");
+    declarations.forEach(d -> source.append(d).append("\n"));
+    source.append("}\n");
+    return source.toString();
+  }
+
+  private String fullKey(final List<String> imports,
+                         final List<String> declarations,
+                         final String key) {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putString(key, StandardCharsets.UTF_8);
+    hasher.putString(Runtime.version().toString(), StandardCharsets.UTF_8);
+    hasher.putBytes(classpathHash());
+    imports.forEach(i -> hasher.putString(i, StandardCharsets.UTF_8));
+    declarations.forEach(d -> hasher.putString(d, StandardCharsets.UTF_8));
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Hashes the classpath entries with their size and modification time: a rebuilt jar changes the
+   * hash. The files of folders are hashed the same way: a recompiled class changes the hash.
+   */
+  private byte[] classpathHash() {
+    if (classpathHash == null) {
+      final Hasher hasher = Hashing.murmur3_128().newHasher();
+      for (final String entry : classpath.split(File.pathSeparator)) {
+        final File file = new File(entry);
+        hasher.putString(entry, StandardCharsets.UTF_8);
+        if (file.isDirectory()) {
+          putFolder(hasher, file.toPath());
+        } else {
+          hasher.putLong(file.length());
+          hasher.putLong(file.lastModified());
+        }
+      }
+      classpathHash = hasher.hash().asBytes();
+    }
+    return classpathHash;
+  }
+
+  private static void putFolder(final Hasher hasher, final Path folder) {
+    try (final Stream<Path> files = Files.walk(folder)) {
+      files.filter(Files::isRegularFile).sorted().forEach(file -> {
+        final File f = file.toFile();
+        hasher.putString(folder.relativize(file).toString(), StandardCharsets.UTF_8);
+        hasher.putLong(f.length());
+        hasher.putLong(f.lastModified());
+      });
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warn("Failed to hash classpath folder {}: {}", folder, e.getMessage());
+    }
+  }
+
+  void close() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  /**
+   * @param className      the qualified name of the class
+   * @param classpathEntry the folder that contains the class - to add to the classpath
+   * @param fromCache      true if the class was not compiled but found in the cache
+   */
+  record CompiledBatch(String className, Path classpathEntry, boolean fromCache) {
+  }
+
+  private static class SourceFile extends SimpleJavaFileObject {
+    private final String source;
+
+    private SourceFile(final String className, final String source) {
+      super(URI.create("string:///" + PACKAGE + "/" + className + Kind.SOURCE.extension),
+            Kind.SOURCE);
+      this.source = source;
+    }
+
+    @Override
+    public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+      return source;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import jdk.jshell.execution.DirectExecutionControl;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+import java.util.Map;
+
+/**
+ * Runs snippets in the thread that evaluates them. The local execution engine of JShell runs each
+ * snippet in a new thread: the cpu time and the memory allocated by the snippet could not be
+ * measured per thread.
+ * Snippets cannot be stopped. Threads started by a snippet are not awaited.
+ * While a snippet runs, the context class loader of the thread is the loader of the snippets: it
+ * sees the classpath of the shell.
+ */
+class CurrentThreadExecutionControl extends DirectExecutionControl {
+
+  // the loader of the snippets and of the classpath - known once a snippet class is found
+  private volatile ClassLoader snippetsLoader;
+  private ClassLoader previousContextLoader;
+
+  @Override
+  protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    final Class<?> klass = super.findClass(name);
+    snippetsLoader = klass.getClassLoader();
+    return klass;
+  }
+
+  @Override
+  protected void clientCodeEnter() throws InternalException {
+    super.clientCodeEnter();
+    final Thread thread = Thread.currentThread();
+    previousContextLoader = thread.getContextClassLoader();
+    if (snippetsLoader != null) {
+      thread.setContextClassLoader(snippetsLoader);
+    }
+  }
+
+  @Override
+  protected void clientCodeLeave() throws InternalException {
+    Thread.currentThread().setContextClassLoader(previousContextLoader);
+    previousContextLoader = null;
+    super.clientCodeLeave();
+  }
+
+  static class Provider implements ExecutionControlProvider {
+    @Override
+    public String name() {
+      return "jnotebook-current-thread";
+    }
+
+    @Override
+    public ExecutionControl generate(final ExecutionEnv env,
+                                     final Map<String, String> parameters) {
+      // the default loader delegate sets its loader as the context class loader of the caller
+      final Thread thread = Thread.currentThread();
+      final ClassLoader contextLoader = thread.getContextClassLoader();
+      try {
+        return new CurrentThreadExecutionControl();
+      } finally {
+        thread.setContextClassLoader(contextLoader);
+      }
+    }
+  }
+}
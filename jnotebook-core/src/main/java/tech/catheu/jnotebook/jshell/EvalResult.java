@@ -16,5 +16,6 @@ public record EvalResult(List<SnippetEvent> events,
                          String out,
                          String err,
                          List<List<Diag>> diagnostics,
-                         List<List<String>> unresolvedDeps) {
+                         List<List<String>> unresolvedDeps,
+                         EvalStats stats) {
 }
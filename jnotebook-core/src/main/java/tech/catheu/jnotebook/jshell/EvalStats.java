@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Resources consumed by the evaluation of a snippet, compilation included.
+ * cpuNanos and allocatedBytes are -1 if the jvm does not measure them.
+ */
+public record EvalStats(long wallNanos, long cpuNanos, long allocatedBytes) {
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  /**
+   * Starts measuring the current thread. The measure must be stopped in the same thread.
+   */
+  public static Measure start() {
+    return new Measure();
+  }
+
+  /**
+   * Splits the stats of the evaluation of several snippets evenly between the snippets.
+   */
+  public EvalStats split(final int parts) {
+    return new EvalStats(wallNanos / parts,
+                         cpuNanos < 0 ? -1 : cpuNanos / parts,
+                         allocatedBytes < 0 ? -1 : allocatedBytes / parts);
+  }
+
+  public static final class Measure {
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final long startAllocatedBytes;
+
+    private Measure() {
+      this.startCpuNanos = currentThreadCpuTime();
+      this.startAllocatedBytes = currentThreadAllocatedBytes();
+      this.startNanos = System.nanoTime();
+    }
+
+    public EvalStats stop() {
+      final long wallNanos = System.nanoTime() - startNanos;
+      final long cpuNanos = currentThreadCpuTime();
+      final long allocatedBytes = currentThreadAllocatedBytes();
+      return new EvalStats(wallNanos,
+                           difference(startCpuNanos, cpuNanos),
+                           difference(startAllocatedBytes, allocatedBytes));
+    }
+
+    private static long difference(final long start, final long end) {
+      return start < 0 || end < 0 ? -1 : end - start;
+    }
+  }
+
+  private static long currentThreadCpuTime() {
+    if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+        && THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+      return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+    return -1;
+  }
+
+  private static long currentThreadAllocatedBytes() {
+    if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean sunBean
+        && sunBean.isThreadAllocatedMemorySupported()
+        && sunBean.isThreadAllocatedMemoryEnabled()) {
+      return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
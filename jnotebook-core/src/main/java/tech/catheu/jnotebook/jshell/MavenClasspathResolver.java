@@ -0,0 +1,725 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the runtime classpath of a maven project from the local repository, without running
+ * maven. Reads the effective pom: parent poms, properties, dependency management and imported
+ * boms, profiles active by default. Resolves the transitive dependencies like maven: the nearest
+ * declaration wins, exclusions, optional dependencies and scopes are applied. The classes of the
+ * modules of a multi-module project are resolved to their target/classes folder.
+ * Never downloads: if a pom or an artifact is not in the local repository, or if the project uses
+ * something that is not supported - version ranges, profiles with activation conditions that
+ * change the dependencies - the classpath is not resolved and maven must be run.
+ */
+class MavenClasspathResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MavenClasspathResolver.class);
+
+  private static final String POM_FILE = "pom.xml";
+  private static final Path OUTPUT_FOLDER = Path.of("target", "classes");
+  private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+  // maven stops interpolating after this number of nested properties
+  private static final int MAX_INTERPOLATION_DEPTH = 10;
+  private static final Set<String> CLASSPATH_SCOPES = Set.of("compile", "runtime");
+  private static final Set<String> JAR_TYPES = Set.of("jar", "bundle", "ejb", "maven-plugin");
+
+  private final Path localRepository;
+  // the effective models of the poms of the local repository, by groupId:artifactId:version
+  private final Map<String, Model> repositoryModels = new HashMap<>();
+  // parents are shared by many poms - they are parsed once
+  private final Map<Path, Element> poms = new HashMap<>();
+  // the modules of the project, by groupId:artifactId
+  private final Map<String, Model> reactor = new LinkedHashMap<>();
+
+  MavenClasspathResolver(final Path localRepository) {
+    this.localRepository = localRepository;
+  }
+
+  /**
+   * Returns the local repository: the maven.repo.local system property, else the localRepository
+   * of the user settings.xml, else ~/.m2/repository.
+   */
+  static Path localRepository() {
+    final String property = System.getProperty("maven.repo.local");
+    if (property != null && !property.isBlank()) {
+      return Path.of(property);
+    }
+    final Path m2 = Path.of(System.getProperty("user.home"), ".m2");
+    final Path settings = m2.resolve("settings.xml");
+    if (Files.isRegularFile(settings)) {
+      try {
+        final String configured = text(parse(settings), "localRepository");
+        if (configured != null) {
+          return Path.of(interpolate(configured, Map.of()));
+        }
+      } catch (UnresolvableException e) {
+        LOG.warn("Failed to read the local repository in {}: {}", settings, e.getMessage());
+      }
+    }
+    return m2.resolve("repository");
+  }
+
+  /**
+   * Returns the runtime classpath of the project, or empty if it cannot be resolved without
+   * running maven.
+   */
+  Optional<String> resolve(final Path pomFile) {
+    try {
+      final Model project = model(pomFile.toAbsolutePath().normalize());
+      collectModules(project);
+      final Set<String> classpath = new LinkedHashSet<>();
+      if (reactor.isEmpty()) {
+        classpath.addAll(classpath(project));
+      } else {
+        for (final Model module : reactor.values()) {
+          classpath.addAll(classpath(module));
+        }
+      }
+      return Optional.of(String.join(File.pathSeparator, classpath));
+    } catch (UnresolvableException e) {
+      LOG.info("Maven dependencies cannot be resolved from the local repository: {}",
+               e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private void collectModules(final Model model) throws UnresolvableException {
+    for (final String module : model.modules()) {
+      final Path modulePom = model.directory().resolve(module).resolve(POM_FILE).normalize();
+      if (!Files.isRegularFile(modulePom)) {
+        throw new UnresolvableException("module not found: " + modulePom);
+      }
+      final Model moduleModel = model(modulePom);
+      reactor.put(moduleModel.groupId() + ":" + moduleModel.artifactId(), moduleModel);
+      collectModules(moduleModel);
+    }
+  }
+
+  private List<String> classpath(final Model project) throws UnresolvableException {
+    final Visit root = new Visit(null, Set.of(), new ArrayList<>());
+    // breadth first: the nearest declaration of a dependency wins
+    final Deque<Visit> toVisit = new ArrayDeque<>();
+    for (final Dependency dependency : project.dependencies()) {
+      if (CLASSPATH_SCOPES.contains(dependency.scope())) {
+        final Visit visit = new Visit(dependency, dependency.exclusions(), new ArrayList<>());
+        root.children().add(visit);
+        toVisit.add(visit);
+      }
+    }
+    final Set<String> resolved = new HashSet<>();
+    final Map<Visit, String> entries = new IdentityHashMap<>();
+    while (!toVisit.isEmpty()) {
+      final Visit visit = toVisit.poll();
+      final Dependency dependency = visit.dependency();
+      // the classpath cannot contain two versions of a dependency
+      if (!resolved.add(dependency.managementKey())) {
+        continue;
+      }
+      checkVersion(dependency);
+      final Model module = reactor.get(dependency.groupId() + ":" + dependency.artifactId());
+      final Model model;
+      if (module != null) {
+        model = module;
+        if (!"pom".equals(module.packaging())) {
+          entries.put(visit, module.directory().resolve(OUTPUT_FOLDER).toString());
+        }
+      } else {
+        model = repositoryModel(dependency.groupId(),
+                                dependency.artifactId(),
+                                dependency.version());
+        final @Nullable Path artifact = artifact(dependency);
+        if (artifact != null) {
+          entries.put(visit, artifact.toString());
+        }
+      }
+      for (final Dependency transitive : model.dependencies()) {
+        if (transitive.optional() || isExcluded(visit.exclusions(), transitive)) {
+          continue;
+        }
+        // the dependency management of the project applies to the transitive dependencies
+        final Dependency managed = manage(transitive, project.managed(), true);
+        if (!CLASSPATH_SCOPES.contains(transitive.scope())
+            || !CLASSPATH_SCOPES.contains(managed.scope())) {
+          continue;
+        }
+        final Set<String> exclusions = new HashSet<>(visit.exclusions());
+        exclusions.addAll(managed.exclusions());
+        final Visit child = new Visit(managed, exclusions, new ArrayList<>());
+        visit.children().add(child);
+        toVisit.add(child);
+      }
+    }
+
+    final List<String> classpath = new ArrayList<>();
+    if (!"pom".equals(project.packaging())) {
+      classpath.add(project.directory().resolve(OUTPUT_FOLDER).toString());
+    }
+    // like maven: the classpath is in the depth first order of the resolved dependencies
+    addEntries(root, entries, classpath);
+    return classpath;
+  }
+
+  private static void addEntries(final Visit visit, final Map<Visit, String> entries,
+                                 final List<String> classpath) {
+    for (final Visit child : visit.children()) {
+      final String entry = entries.get(child);
+      if (entry != null) {
+        classpath.add(entry);
+      }
+      addEntries(child, entries, classpath);
+    }
+  }
+
+  private @Nullable Path artifact(final Dependency dependency) throws UnresolvableException {
+    final String classifier;
+    if ("pom".equals(dependency.type())) {
+      return null;
+    } else if ("test-jar".equals(dependency.type())) {
+      classifier = "tests";
+    } else if (JAR_TYPES.contains(dependency.type())) {
+      classifier = dependency.classifier();
+    } else {
+      throw new UnresolvableException("unsupported dependency type: " + dependency.type());
+    }
+    final Path artifact = artifactFolder(dependency.groupId(),
+                                         dependency.artifactId(),
+                                         dependency.version())
+            .resolve(dependency.artifactId() + "-" + dependency.version()
+                     + (classifier.isEmpty() ? "" : "-" + classifier) + ".jar");
+    if (!Files.isRegularFile(artifact)) {
+      throw new UnresolvableException("artifact not in the local repository: " + artifact);
+    }
+    return artifact;
+  }
+
+  private Path artifactFolder(final String groupId, final String artifactId,
+                              final String version) {
+    return localRepository.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version);
+  }
+
+  private Model repositoryModel(final String groupId, final String artifactId,
+                                final String version) throws UnresolvableException {
+    final String coordinates = groupId + ":" + artifactId + ":" + version;
+    Model model = repositoryModels.get(coordinates);
+    if (model == null) {
+      final Path pom = artifactFolder(groupId, artifactId, version)
+              .resolve(artifactId + "-" + version + ".pom");
+      if (!Files.isRegularFile(pom)) {
+        throw new UnresolvableException("pom not in the local repository: " + pom);
+      }
+      model = model(pom);
+      repositoryModels.put(coordinates, model);
+    }
+    return model;
+  }
+
+  /**
+   * Builds the effective model of a pom: the inherited values are merged, the properties are
+   * interpolated, the boms are imported and the dependency management is applied to the
+   * dependencies.
+   */
+  private Model model(final Path pom) throws UnresolvableException {
+    final RawModel raw = rawModel(pom, new HashSet<>());
+    final Map<String, String> properties = new HashMap<>(raw.properties);
+    properties.put("project.groupId", raw.groupId);
+    properties.put("project.artifactId", raw.artifactId);
+    properties.put("project.version", raw.version);
+    properties.put("project.packaging", raw.packaging);
+    properties.put("project.basedir", pom.getParent().toString());
+    properties.put("basedir", pom.getParent().toString());
+    if (raw.parentGroupId != null) {
+      properties.put("project.parent.groupId", raw.parentGroupId);
+      properties.put("project.parent.version", raw.parentVersion);
+    }
+
+    final Map<String, Dependency> managed = new LinkedHashMap<>();
+    final List<Dependency> imports = new ArrayList<>();
+    for (final Dependency dependency : raw.managed) {
+      final Dependency interpolated = dependency.interpolate(properties);
+      if ("import".equals(interpolated.scope())) {
+        imports.add(interpolated);
+      } else {
+        managed.put(interpolated.managementKey(), interpolated);
+      }
+    }
+    for (final Dependency bom : imports) {
+      checkVersion(bom);
+      repositoryModel(bom.groupId(), bom.artifactId(), bom.version())
+              .managed()
+              .forEach(managed::putIfAbsent);
+    }
+
+    final List<Dependency> dependencies = new ArrayList<>();
+    for (final Dependency dependency : raw.dependencies) {
+      dependencies.add(manage(dependency.interpolate(properties), managed, false));
+    }
+    final List<String> modules = raw.modules.stream()
+                                            .map(m -> interpolate(m, properties))
+                                            .toList();
+    return new Model(interpolate(raw.groupId, properties),
+                     interpolate(raw.artifactId, properties),
+                     interpolate(raw.packaging, properties),
+                     pom.getParent(),
+                     dependencies,
+                     managed,
+                     modules);
+  }
+
+  /**
+   * Reads a pom and merges the values it inherits from its parents. Nothing is interpolated: the
+   * values inherited are interpolated with the properties of the child.
+   */
+  private RawModel rawModel(final Path pom, final Set<Path> visited)
+          throws UnresolvableException {
+    if (!visited.add(pom)) {
+      throw new UnresolvableException("cycle in the parents of " + pom);
+    }
+    final Element project = pom(pom);
+    final Element parent = child(project, "parent");
+    final RawModel model;
+    if (parent != null) {
+      model = parentModel(pom, parent, visited);
+      model.parentGroupId = text(parent, "groupId");
+      model.parentVersion = text(parent, "version");
+    } else {
+      model = new RawModel();
+    }
+    // modules are not inherited
+    model.modules = new ArrayList<>();
+    model.groupId = Objects.requireNonNullElse(text(project, "groupId"), model.groupId);
+    model.version = Objects.requireNonNullElse(text(project, "version"), model.version);
+    model.artifactId = text(project, "artifactId");
+    model.packaging = Objects.requireNonNullElse(text(project, "packaging"), "jar");
+    if (model.groupId == null || model.version == null || model.artifactId == null) {
+      throw new UnresolvableException("incomplete coordinates in " + pom);
+    }
+    merge(model, project);
+    final List<Element> activeProfiles = new ArrayList<>();
+    final List<Element> defaultProfiles = new ArrayList<>();
+    for (final Element profile : children(child(project, "profiles"), "profile")) {
+      final Element activation = child(profile, "activation");
+      if (activation == null) {
+        continue;
+      }
+      final Boolean active = isActive(activation, pom.getParent());
+      if (active == null) {
+        if (mayChangeDependencies(profile)) {
+          throw new UnresolvableException("activation of profile " + text(profile, "id") + " of "
+                                          + pom + " is not supported");
+        }
+      } else if (active) {
+        activeProfiles.add(profile);
+      } else if ("true".equals(text(activation, "activeByDefault"))) {
+        defaultProfiles.add(profile);
+      }
+    }
+    // like maven: the profiles active by default are not active if another profile is active
+    for (final Element profile : activeProfiles.isEmpty() ? defaultProfiles : activeProfiles) {
+      merge(model, profile);
+    }
+    return model;
+  }
+
+  /**
+   * Returns whether all the activation conditions of a profile are met, or null if a condition
+   * is not supported. Returns false if there is no condition.
+   * The conditions on properties are evaluated with the system properties.
+   */
+  private static @Nullable Boolean isActive(final Element activation, final Path directory) {
+    boolean hasCondition = false;
+    for (final Element condition : children(activation, null)) {
+      final boolean met;
+      switch (condition.getTagName()) {
+        case "activeByDefault" -> {
+          continue;
+        }
+        case "jdk" -> {
+          final String jdk = condition.getTextContent().trim();
+          final String prefix = jdk.startsWith("!") ? jdk.substring(1) : jdk;
+          if (prefix.startsWith("[") || prefix.startsWith("(")) {
+            return null;
+          }
+          met = System.getProperty("java.version").startsWith(prefix) != jdk.startsWith("!");
+        }
+        case "property" -> {
+          final String name = text(condition, "name");
+          if (name == null) {
+            return null;
+          }
+          final String value = text(condition, "value");
+          final String actual = System.getProperty(name.startsWith("!") ? name.substring(1) : name);
+          if (name.startsWith("!")) {
+            met = actual == null;
+          } else if (value == null) {
+            met = actual != null;
+          } else if (value.startsWith("!")) {
+            met = !value.substring(1).equals(actual);
+          } else {
+            met = value.equals(actual);
+          }
+        }
+        case "file" -> {
+          final Map<String, String> basedir = Map.of("basedir", directory.toString(),
+                                                     "project.basedir", directory.toString());
+          final String exists = text(condition, "exists");
+          final String missing = text(condition, "missing");
+          if (exists != null) {
+            met = Files.exists(directory.resolve(interpolate(exists, basedir)));
+          } else if (missing != null) {
+            met = !Files.exists(directory.resolve(interpolate(missing, basedir)));
+          } else {
+            return null;
+          }
+        }
+        default -> {
+          return null;
+        }
+      }
+      if (!met) {
+        return false;
+      }
+      hasCondition = true;
+    }
+    return hasCondition;
+  }
+
+  private static boolean mayChangeDependencies(final Element profile) {
+    return child(profile, "dependencies") != null
+           || child(profile, "dependencyManagement") != null
+           || child(profile, "properties") != null
+           || child(profile, "modules") != null;
+  }
+
+  private RawModel parentModel(final Path pom, final Element parent, final Set<Path> visited)
+          throws UnresolvableException {
+    final String groupId = text(parent, "groupId");
+    final String artifactId = text(parent, "artifactId");
+    final String version = text(parent, "version");
+    if (groupId == null || artifactId == null || version == null) {
+      throw new UnresolvableException("incomplete parent coordinates in " + pom);
+    }
+    final Element relativePathElement = child(parent, "relativePath");
+    final String relativePath =
+            relativePathElement == null ? "../pom.xml" : relativePathElement.getTextContent()
+                                                                            .trim();
+    if (!relativePath.isEmpty()) {
+      Path parentPom = pom.getParent().resolve(relativePath).normalize();
+      if (Files.isDirectory(parentPom)) {
+        parentPom = parentPom.resolve(POM_FILE);
+      }
+      if (Files.isRegularFile(parentPom)) {
+        final Element parentProject = pom(parentPom);
+        final Element grandParent = child(parentProject, "parent");
+        final String parentGroupId = Objects.requireNonNullElse(
+                text(parentProject, "groupId"),
+                Objects.requireNonNullElse(text(grandParent, "groupId"), ""));
+        if (groupId.equals(parentGroupId)
+            && artifactId.equals(text(parentProject, "artifactId"))) {
+          return rawModel(parentPom, visited);
+        }
+      }
+    }
+    final Path repositoryPom = artifactFolder(groupId, artifactId, version)
+            .resolve(artifactId + "-" + version + ".pom");
+    if (!Files.isRegularFile(repositoryPom)) {
+      throw new UnresolvableException("pom not in the local repository: " + repositoryPom);
+    }
+    return rawModel(repositoryPom, visited);
+  }
+
+  /**
+   * Merges the properties, dependencies, dependency management and modules of a project or of a
+   * profile in the model.
+   */
+  private static void merge(final RawModel model, final Element element) {
+    for (final Element property : children(child(element, "properties"), null)) {
+      model.properties.put(property.getTagName(), property.getTextContent().trim());
+    }
+    for (final Element dependency : children(child(element, "dependencies"), "dependency")) {
+      model.dependencies.add(Dependency.of(dependency));
+    }
+    final Element management = child(child(element, "dependencyManagement"), "dependencies");
+    for (final Element dependency : children(management, "dependency")) {
+      model.managed.add(Dependency.of(dependency));
+    }
+    for (final Element module : children(child(element, "modules"), "module")) {
+      model.modules.add(module.getTextContent().trim());
+    }
+  }
+
+  /**
+   * Applies the dependency management to a dependency.
+   *
+   * @param override true for transitive dependencies: the managed version and scope replace the
+   *                 declared ones
+   */
+  private static Dependency manage(final Dependency dependency,
+                                   final Map<String, Dependency> managed,
+                                   final boolean override) {
+    final Dependency management = managed.get(dependency.managementKey());
+    if (management == null) {
+      return dependency.withDefaults();
+    }
+    final String version = override || dependency.version() == null
+                           ? Objects.requireNonNullElse(management.version(),
+                                                        dependency.version())
+                           : dependency.version();
+    final String scope;
+    if (override) {
+      // a managed scope cannot make a transitive runtime dependency a compile dependency
+      scope = management.scope() == null || "runtime".equals(dependency.scope())
+              ? dependency.scope()
+              : management.scope();
+    } else {
+      scope = dependency.scope() == null ? management.scope() : dependency.scope();
+    }
+    final Set<String> exclusions = new HashSet<>(dependency.exclusions());
+    exclusions.addAll(management.exclusions());
+    return new Dependency(dependency.groupId(),
+                          dependency.artifactId(),
+                          version,
+                          dependency.type(),
+                          dependency.classifier(),
+                          scope,
+                          dependency.optional(),
+                          exclusions).withDefaults();
+  }
+
+  private static void checkVersion(final Dependency dependency) throws UnresolvableException {
+    final String version = dependency.version();
+    if (version == null || version.contains("${")) {
+      throw new UnresolvableException("no version for " + dependency.managementKey());
+    }
+    if (version.startsWith("[") || version.startsWith("(")) {
+      throw new UnresolvableException("version ranges are not supported: "
+                                      + dependency.managementKey() + ":" + version);
+    }
+  }
+
+  private static boolean isExcluded(final Set<String> exclusions, final Dependency dependency) {
+    return exclusions.contains("*:*")
+           || exclusions.contains(dependency.groupId() + ":*")
+           || exclusions.contains("*:" + dependency.artifactId())
+           || exclusions.contains(dependency.groupId() + ":" + dependency.artifactId());
+  }
+
+  private static String interpolate(final String value, final Map<String, String> properties) {
+    String interpolated = value;
+    for (int i = 0; i < MAX_INTERPOLATION_DEPTH && interpolated.contains("${"); i++) {
+      final Matcher matcher = PROPERTY.matcher(interpolated);
+      final StringBuilder result = new StringBuilder();
+      while (matcher.find()) {
+        final String replacement = property(matcher.group(1), properties);
+        matcher.appendReplacement(result,
+                                  Matcher.quoteReplacement(Objects.requireNonNullElse(
+                                          replacement, matcher.group())));
+      }
+      matcher.appendTail(result);
+      if (result.toString().equals(interpolated)) {
+        break;
+      }
+      interpolated = result.toString();
+    }
+    return interpolated;
+  }
+
+  private static @Nullable String property(final String name,
+                                           final Map<String, String> properties) {
+    final String key = name.startsWith("pom.") ? "project." + name.substring(4) : name;
+    if (properties.containsKey(key)) {
+      return properties.get(key);
+    }
+    if (key.startsWith("env.")) {
+      return System.getenv(key.substring(4));
+    }
+    return System.getProperty(key);
+  }
+
+  private Element pom(final Path pom) throws UnresolvableException {
+    Element project = poms.get(pom);
+    if (project == null) {
+      project = parse(pom);
+      poms.put(pom, project);
+    }
+    return project;
+  }
+
+  private static Element parse(final Path xmlFile) throws UnresolvableException {
+    try {
+      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setExpandEntityReferences(false);
+      final Document document = factory.newDocumentBuilder().parse(xmlFile.toFile());
+      return document.getDocumentElement();
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      throw new UnresolvableException("failed to read " + xmlFile + ": " + e.getMessage());
+    }
+  }
+
+  private static @Nullable Element child(final @Nullable Element element, final String name) {
+    if (element == null) {
+      return null;
+    }
+    for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element child && child.getTagName().equals(name)) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param name the tag name of the children. If null, all the children are returned.
+   */
+  private static List<Element> children(final @Nullable Element element,
+                                        final @Nullable String name) {
+    if (element == null) {
+      return List.of();
+    }
+    final List<Element> children = new ArrayList<>();
+    for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element child && (name == null || child.getTagName().equals(name))) {
+        children.add(child);
+      }
+    }
+    return children;
+  }
+
+  private static @Nullable String text(final @Nullable Element element, final String name) {
+    final Element child = child(element, name);
+    return child == null ? null : child.getTextContent().trim();
+  }
+
+  /**
+   * A pom merged with its parents, before interpolation.
+   */
+  private static final class RawModel {
+    private String groupId;
+    private String artifactId;
+    private String version;
+    private String packaging;
+    private @Nullable String parentGroupId;
+    private @Nullable String parentVersion;
+    private final Map<String, String> properties = new HashMap<>();
+    private final List<Dependency> dependencies = new ArrayList<>();
+    private final List<Dependency> managed = new ArrayList<>();
+    private List<String> modules = new ArrayList<>();
+  }
+
+  /**
+   * An effective pom.
+   *
+   * @param directory the folder of the pom
+   * @param managed   the dependency management, by management key
+   */
+  private record Model(String groupId,
+                       String artifactId,
+                       String packaging,
+                       Path directory,
+                       List<Dependency> dependencies,
+                       Map<String, Dependency> managed,
+                       List<String> modules) {
+  }
+
+  /**
+   * @param exclusions the excluded groupId:artifactId. Can contain wildcards.
+   */
+  private record Dependency(String groupId,
+                            String artifactId,
+                            @Nullable String version,
+                            String type,
+                            String classifier,
+                            @Nullable String scope,
+                            boolean optional,
+                            Set<String> exclusions) {
+
+    private static Dependency of(final Element element) {
+      final Set<String> exclusions = new HashSet<>();
+      for (final Element exclusion : children(child(element, "exclusions"), "exclusion")) {
+        exclusions.add(Objects.requireNonNullElse(text(exclusion, "groupId"), "*") + ":"
+                       + Objects.requireNonNullElse(text(exclusion, "artifactId"), "*"));
+      }
+      return new Dependency(Objects.requireNonNullElse(text(element, "groupId"), ""),
+                            Objects.requireNonNullElse(text(element, "artifactId"), ""),
+                            text(element, "version"),
+                            Objects.requireNonNullElse(text(element, "type"), "jar"),
+                            Objects.requireNonNullElse(text(element, "classifier"), ""),
+                            text(element, "scope"),
+                            "true".equals(text(element, "optional")),
+                            exclusions);
+    }
+
+    private Dependency interpolate(final Map<String, String> properties) {
+      final UnaryOperator<String> interpolator =
+              value -> value == null ? null : MavenClasspathResolver.interpolate(value,
+                                                                                 properties);
+      return new Dependency(interpolator.apply(groupId),
+                            interpolator.apply(artifactId),
+                            interpolator.apply(version),
+                            interpolator.apply(type),
+                            interpolator.apply(classifier),
+                            interpolator.apply(scope),
+                            optional,
+                            exclusions);
+    }
+
+    private Dependency withDefaults() {
+      return scope != null ? this : new Dependency(groupId,
+                                                   artifactId,
+                                                   version,
+                                                   type,
+                                                   classifier,
+                                                   "compile",
+                                                   optional,
+                                                   exclusions);
+    }
+
+    private String managementKey() {
+      return groupId + ":" + artifactId + ":" + type + ":" + classifier;
+    }
+  }
+
+  /**
+   * A declaration of a dependency in the dependency tree.
+   *
+   * @param dependency null for the project
+   * @param exclusions the exclusions of the dependency and of the dependencies that led to it
+   * @param children   the dependencies of the dependency, if the declaration was resolved
+   */
+  private record Visit(@Nullable Dependency dependency,
+                       Set<String> exclusions,
+                       List<Visit> children) {
+  }
+
+  private static final class UnresolvableException extends Exception {
+    private UnresolvableException(final String message) {
+      super(message);
+    }
+  }
+}
@@ -8,17 +8,24 @@
 package tech.catheu.jnotebook.jshell;
 
 import jdk.jshell.*;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.catheu.jnotebook.metrics.Stage;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
 
 /**
  * An opinionated wrapping of JShell that exposes more info about snippets
  */
 public class PowerJShell {
 
+  private static final Logger LOG = LoggerFactory.getLogger(PowerJShell.class);
+
   public static final String JSHELL_DEFAULT_JSH = """
           import java.io.*;
           import java.math.*;
@@ -57,20 +64,36 @@ public class PowerJShell {
   private static final List<String> initScripts =
           List.of(JSHELL_DEFAULT_JSH, JSHELL_PRINTING_JSH);
 
+  // System.out and System.err are global: they are replaced once by streams that route the
+  // writes to the shell evaluating in the current thread. Shells can evaluate concurrently.
+  private static RoutedOutputStream routedOut;
+  private static RoutedOutputStream routedErr;
+
+  private final Configuration configuration;
   private final JShell delegate;
   private final ByteArrayOutputStream out;
   private final ByteArrayOutputStream err;
   private final PrintStream outPrintStream;
   private final PrintStream errPrintStream;
+  // created on first use
+  private BatchCompiler batchCompiler;
+  private final Set<Path> batchClasspath = new HashSet<>();
+  private final long startNanos = System.nanoTime();
+  // snippets created in the shell - a snippet is never removed from the shell, even when dropped
+  private volatile int snippetCount;
+  // snippets overwritten or dropped since the shell started
+  private volatile int churn;
 
   public PowerJShell(final Configuration configuration) {
+    this.configuration = configuration;
     out = new ByteArrayOutputStream();
     outPrintStream = new PrintStream(out);
     err = new ByteArrayOutputStream();
     errPrintStream = new PrintStream(err);
+    installRoutedStreams();
     this.delegate = JShell.builder()
-                          // TODO CYRIL use a custom execution engine (see jupyter kernel java implems)
-                          .executionEngine("local")
+                          .executionEngine(new CurrentThreadExecutionControl.Provider(),
+                                           Map.of())
                           .build();
     this.delegate.addToClasspath(configuration.classpath);
     for (final String script : initScripts) {
@@ -78,33 +101,116 @@ public class PowerJShell {
         this.delegate.eval(statement);
       }
     }
+    this.snippetCount = (int) delegate.snippets().count();
+  }
+
+  private static synchronized void installRoutedStreams() {
+    if (routedOut == null) {
+      routedOut = new RoutedOutputStream(System.out);
+      routedErr = new RoutedOutputStream(System.err);
+      System.setOut(new PrintStream(routedOut, true));
+      System.setErr(new PrintStream(routedErr, true));
+    }
   }
 
   public EvalResult eval(String input) throws IllegalStateException {
-    // FIXME CYRIL hacky + not thread safe - need to ask on dev mailing
-    final PrintStream previousOutStream = System.out;
-    final PrintStream previousErrStream = System.err;
-    System.setOut(outPrintStream);
-    System.setErr(errPrintStream);
-    final List<SnippetEvent> eval = delegate.eval(input);
-    System.setOut(previousOutStream);
-    System.setErr(previousErrStream);
+    return eval(input, true);
+  }
+
+  /**
+   * @param timed whether the evaluation is observed as an eval stage. Evaluations done within
+   *              another stage should not be counted twice.
+   */
+  private EvalResult eval(final String input, final boolean timed) {
+    routedOut.startCapture(outPrintStream);
+    routedErr.startCapture(errPrintStream);
+    final List<SnippetEvent> eval;
+    final EvalStats stats;
+    try {
+      final EvalStats.Measure measure = EvalStats.start();
+      eval = timed ? Stage.EVAL.time(() -> delegate.eval(input)) : delegate.eval(input);
+      stats = measure.stop();
+    } finally {
+      outPrintStream.flush();
+      errPrintStream.flush();
+      routedOut.stopCapture(outPrintStream);
+      routedErr.stopCapture(errPrintStream);
+    }
 
     List<List<Diag>> diagnostics = new ArrayList<>();
     List<List<String>> unresolvedDeps = new ArrayList<>();
     for (final SnippetEvent se : eval) {
       final Snippet snippet = se.snippet();
+      if (se.causeSnippet() == null) {
+        snippetCount++;
+      }
+      if (se.status() == Snippet.Status.OVERWRITTEN) {
+        churn++;
+      }
       diagnostics.add(delegate.diagnostics(snippet).toList());
       if (snippet instanceof DeclarationSnippet ds) {
         unresolvedDeps.add(delegate.unresolvedDependencies(ds).toList());
       }
 
     }
-    return new EvalResult(eval, popOut(), popErr(), diagnostics, unresolvedDeps);
+    return new EvalResult(eval, popOut(), popErr(), diagnostics, unresolvedDeps, stats);
+  }
+
+  /**
+   * Compiles the declarations in a single class, and imports the class in the shell. The
+   * declarations must be public and static, and must only reference the imports and the other
+   * declarations. The stats of the compilation are split evenly between the declarations.
+   * If the compiled class is in the cache of the configuration, it is not compiled again.
+   * Returns empty if the compilation or the import fails: the declarations should be evaluated
+   * one by one to get their diagnostics.
+   *
+   * @param imports  the import statements of the notebook
+   * @param cacheKey identifies the declarations and the snippets they depend on
+   */
+  public Optional<BatchResult> evalBatch(final List<String> imports,
+                                         final List<String> declarations,
+                                         final String cacheKey) {
+    if (batchCompiler == null) {
+      batchCompiler = new BatchCompiler(configuration.classpath, configuration.bytecodeCache);
+    }
+    final EvalStats.Measure measure = EvalStats.start();
+    final List<String> allImports = new ArrayList<>(JSHELL_DEFAULT_JSH.lines().toList());
+    allImports.addAll(imports);
+    final EvalResult importResult;
+    final Stage.Timing timing = Stage.BATCH.start();
+    try {
+      final BatchCompiler.CompiledBatch compiled =
+              batchCompiler.compile(allImports, declarations, cacheKey);
+      if (compiled == null) {
+        return Optional.empty();
+      }
+      if (compiled.fromCache()) {
+        LOG.debug("Loading {} compiled declarations from cache", declarations.size());
+      }
+      if (batchClasspath.add(compiled.classpathEntry())) {
+        delegate.addToClasspath(compiled.classpathEntry().toString());
+      }
+      importResult = eval("import static " + compiled.className() + ".*;", false);
+    } finally {
+      timing.stop();
+    }
+    if (importResult.events().isEmpty()
+        || !importResult.events().get(0).status().equals(Snippet.Status.VALID)) {
+      return Optional.empty();
+    }
+    final EvalStats stats = measure.stop().split(declarations.size());
+    final List<EvalResult> declarationResults = new ArrayList<>(declarations.size());
+    for (int i = 0; i < declarations.size(); i++) {
+      declarationResults.add(new EvalResult(List.of(), "", "", List.of(), List.of(), stats));
+    }
+    return Optional.of(new BatchResult(importResult, declarationResults));
   }
 
   public void close() {
     delegate.close();
+    if (batchCompiler != null) {
+      batchCompiler.close();
+    }
     outPrintStream.close();
     errPrintStream.close();
   }
@@ -128,8 +234,41 @@ public class PowerJShell {
 
   public void drop(Snippet snippet) {
     delegate.drop(snippet);
+    churn++;
+  }
+
+  /**
+   * Returns the number of snippets created in the shell, including the snippets dropped or
+   * overwritten: JShell keeps all of them.
+   */
+  public int snippetCount() {
+    return snippetCount;
+  }
+
+  /**
+   * Returns the number of snippets overwritten or dropped since the shell started.
+   */
+  public int churn() {
+    return churn;
+  }
+
+  public Duration age() {
+    return Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @param bytecodeCache the folder where compiled declarations are cached. If null, they are not
+   *                      cached.
+   */
+  public record Configuration(String classpath, @Nullable Path bytecodeCache) {
   }
 
-  public record Configuration(String classpath) {
+  /**
+   * @param importResult       the result of the import of the compiled class - dropping its
+   *                           events removes the declarations from the shell
+   * @param declarationResults the results of the declarations, in order. They have no events,
+   *                           no diagnostics and no unresolved dependencies.
+   */
+  public record BatchResult(EvalResult importResult, List<EvalResult> declarationResults) {
   }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes writes to the capture of the shell evaluating in the current thread.
+ * The capture is inherited by the threads started during the evaluation.
+ * Threads without a capture, for instance loggers, server threads or pool threads created before
+ * the evaluation, write to the default stream. A thread that inherited a capture writes to the
+ * default stream once the evaluation is finished.
+ */
+class RoutedOutputStream extends OutputStream {
+
+  private final OutputStream defaultStream;
+  private final InheritableThreadLocal<OutputStream> threadCapture =
+          new InheritableThreadLocal<>();
+  private final Set<OutputStream> activeCaptures = ConcurrentHashMap.newKeySet();
+
+  RoutedOutputStream(final OutputStream defaultStream) {
+    this.defaultStream = defaultStream;
+  }
+
+  void startCapture(final OutputStream capture) {
+    threadCapture.set(capture);
+    activeCaptures.add(capture);
+  }
+
+  void stopCapture(final OutputStream capture) {
+    activeCaptures.remove(capture);
+    threadCapture.remove();
+  }
+
+  private OutputStream target() {
+    final OutputStream capture = threadCapture.get();
+    if (capture != null && activeCaptures.contains(capture)) {
+      return capture;
+    }
+    return defaultStream;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    target().write(b);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    target().write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    target().flush();
+  }
+}
@@ -7,15 +7,26 @@
  */
 package tech.catheu.jnotebook.jshell;
 
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.catheu.jnotebook.Main;
+import tech.catheu.jnotebook.file.PathObservables;
 import tech.catheu.jnotebook.localstorage.LocalStorage;
+import tech.catheu.jnotebook.metrics.Counter;
+import tech.catheu.jnotebook.metrics.Metrics;
 
 import java.io.*;
-import java.util.ArrayDeque;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
@@ -33,6 +44,13 @@ public class ShellProvider {
           " -q exec:exec -Dexec.executable=echo -Dexec.args=\"%classpath\"";
   public static final String MAVEN_DEPENDENCY_COMMAND_WINDOWS =
           " -q exec:exec -Dexec^.executable=cmd -Dexec^.args=\"/c echo %classpath\"";
+  private static final Path PROJECT_CLASSES_FOLDER = Path.of("target", "classes");
+  private static final String CLASS_SUFFIX = ".class";
+  // a compilation writes many class files: changes are grouped until no class file changed for
+  // this duration
+  private static final long COMPILATION_QUIET_MILLIS = 500;
+  private static final Counter SHELLS_STARTED =
+          Metrics.counter("jnotebook_shells_started_total", "Number of shells started.");
   private final Deque<PowerJShell> preparedShells;
   private final Main.SharedConfiguration configuration;
 
@@ -41,8 +59,11 @@ public class ShellProvider {
 
   public ShellProvider(final Main.SharedConfiguration configuration) {
     this.configuration = configuration;
-    this.preparedShells = new ArrayDeque<>(2);
+    this.preparedShells = new ConcurrentLinkedDeque<>();
     this.localStorage = LocalStorage.instanceFor(configuration);
+    Metrics.gauge("jnotebook_shells_prepared",
+                  "Number of shells started in advance, ready to be used.",
+                  preparedShells::size);
 
     warmUp();
   }
@@ -54,17 +75,26 @@ public class ShellProvider {
   }
 
   public PowerJShell getShell() {
-    return optional(preparedShells.poll()).orElse(this.newShell());
+    return optional(preparedShells.poll()).orElseGet(this::newShell);
+  }
+
+  private void discardPreparedShells() {
+    PowerJShell shell;
+    while ((shell = preparedShells.poll()) != null) {
+      shell.close();
+    }
   }
 
   private PowerJShell newShell() {
+    SHELLS_STARTED.increment();
     final String classPath = getClassPath();
     final PowerJShell.Configuration powerJShellConfig =
-            new PowerJShell.Configuration(classPath);
+            new PowerJShell.Configuration(classPath, localStorage.getBytecodeCachePath());
     return new PowerJShell(powerJShellConfig);
   }
 
-  private String getClassPath() {
+  // synchronized: shells can be requested concurrently, the classpath must only be resolved once
+  private synchronized String getClassPath() {
     if (resolvedClasspath != null) {
       return resolvedClasspath;
     }
@@ -72,14 +102,22 @@ public class ShellProvider {
       LOG.info("Injecting provided classpath: " + configuration.classPath);
       resolvedClasspath = configuration.classPath;
     } else if (new File(MAVEN_PROJECT_FILE).exists()) {
-      try {
-        LOG.info(
-                "Found a pom.xml file. Trying to add maven dependencies to the classpath...");
-        resolvedClasspath = computeMavenClasspath();
-        LOG.info("Maven dependencies added to the classpath successfully");
-      } catch (IOException | InterruptedException e) {
-        LOG.error("Failed resolving maven dependencies in pom.xml.", e);
-        resolvedClasspath = configuration.classPath;
+      LOG.info("Found a pom.xml file. Trying to add maven dependencies to the classpath...");
+      // resolving from the local repository is much faster than running maven
+      final Optional<String> localClasspath =
+              new MavenClasspathResolver(MavenClasspathResolver.localRepository()).resolve(
+                      Path.of(MAVEN_PROJECT_FILE));
+      if (localClasspath.isPresent()) {
+        resolvedClasspath = localClasspath.get();
+        LOG.info("Maven dependencies added to the classpath from the local repository");
+      } else {
+        try {
+          resolvedClasspath = computeMavenClasspath();
+          LOG.info("Maven dependencies added to the classpath successfully");
+        } catch (IOException | InterruptedException e) {
+          LOG.error("Failed resolving maven dependencies in pom.xml.", e);
+          resolvedClasspath = configuration.classPath;
+        }
       }
     } else if (new File(GRADLE_PROJECT_FILE).exists()) {
       LOG.warn(
@@ -96,6 +134,58 @@ public class ShellProvider {
     return resolvedClasspath;
   }
 
+  /**
+   * Returns the folders of compiled project classes on the classpath. When their classes change,
+   * the shells that loaded them are outdated.
+   */
+  public List<Path> projectClassesFolders() {
+    return Arrays.stream(getClassPath().split(File.pathSeparator))
+                 .filter(entry -> !entry.isBlank())
+                 .map(entry -> Path.of(entry).toAbsolutePath().normalize())
+                 .filter(ShellProvider::isProjectClassesFolder)
+                 .filter(Files::isDirectory)
+                 .distinct()
+                 .toList();
+  }
+
+  private static boolean isProjectClassesFolder(final Path path) {
+    return path.endsWith(PROJECT_CLASSES_FOLDER);
+  }
+
+  /**
+   * Watches the folders of compiled project classes. Emits the binary names of the classes
+   * changed by a compilation of the project, once no class file changed for a while. The shells
+   * prepared in advance are discarded: their compiler may have read the previous classes.
+   */
+  public Observable<Set<String>> projectClassChanges() {
+    final List<Observable<String>> changesPerFolder =
+            projectClassesFolders().stream().map(ShellProvider::classChanges).toList();
+    if (changesPerFolder.isEmpty()) {
+      return Observable.empty();
+    }
+    final Observable<String> changes = Observable.merge(changesPerFolder).share();
+    return changes.buffer(changes.debounce(COMPILATION_QUIET_MILLIS, TimeUnit.MILLISECONDS))
+                  .map(Set::copyOf)
+                  .doOnNext(changedClasses -> discardPreparedShells());
+  }
+
+  private static Observable<String> classChanges(final Path folder) {
+    return PathObservables.of(folder,
+                              PathObservables.FileHashing.CONTENT,
+                              Integer.MAX_VALUE,
+                              p -> p.toString().endsWith(CLASS_SUFFIX))
+                          // watching blocks
+                          .subscribeOn(Schedulers.io())
+                          .filter(e -> e.path().toString().endsWith(CLASS_SUFFIX))
+                          .map(e -> className(folder, e.path()));
+  }
+
+  private static String className(final Path folder, final Path classFile) {
+    final String relativePath = folder.relativize(classFile).toString();
+    return relativePath.substring(0, relativePath.length() - CLASS_SUFFIX.length())
+                       .replace(File.separatorChar, '.');
+  }
+
   private String computeMavenClasspath() throws IOException, InterruptedException {
     final File mavenWrapper = lookForFile(MAVEN_WRAPPER_FILE, new File(""), 0);
     final String mavenExecutable;
@@ -27,6 +27,8 @@ public class LocalStorage {
   private static final String RESOURCES_JNOTEBOOK_UTILS_PATH =
           "/utils/jnotebook-utils.jar";
   private static final String LOCAL_STORAGE_UTILS_FOLDER = "utils";
+  private static final String LOCAL_STORAGE_ASSETS_FOLDER = "assets";
+  private static final String LOCAL_STORAGE_BYTECODE_FOLDER = "bytecode";
 
   private static LocalStorage instance;
   private final Main.SharedConfiguration config;
@@ -62,4 +64,18 @@ public class LocalStorage {
     }
     return localStorageUtilsJarPath.toString();
   }
+
+  /**
+   * Returns the path of the folder where the notebook page assets are vendored.
+   */
+  public Path getAssetsPath() {
+    return Paths.get(config.localStoragePath, LOCAL_STORAGE_ASSETS_FOLDER);
+  }
+
+  /**
+   * Returns the path of the folder where the compiled declarations of notebooks are cached.
+   */
+  public Path getBytecodeCachePath() {
+    return Paths.get(config.localStoragePath, LOCAL_STORAGE_BYTECODE_FOLDER);
+  }
 }
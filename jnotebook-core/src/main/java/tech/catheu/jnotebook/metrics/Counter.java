@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter implements Metrics.Metric {
+
+  private final String[] labels;
+  private final LongAdder value = new LongAdder();
+
+  Counter(final String[] labels) {
+    this.labels = labels;
+  }
+
+  public void increment() {
+    value.increment();
+  }
+
+  public void add(final long amount) {
+    value.add(amount);
+  }
+
+  public long get() {
+    return value.sum();
+  }
+
+  @Override
+  public void render(final String name, final StringBuilder sb) {
+    sb.append(name)
+      .append(Metrics.formatLabels(labels, null, null))
+      .append(" ")
+      .append(value.sum())
+      .append("\n");
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets, from 1 millisecond to 1 minute.
+ * An observation increments a single bucket: buckets are made cumulative when rendered.
+ */
+public class Histogram implements Metrics.Metric {
+
+  private static final double[] BUCKETS_SECONDS =
+          {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+  private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+
+  static {
+    for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+      BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * 1e9);
+    }
+  }
+
+  private final String[] labels;
+  // the last bucket is +Inf
+  private final LongAdder[] buckets = new LongAdder[BUCKETS_NANOS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  Histogram(final String[] labels) {
+    this.labels = labels;
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void observeNanos(final long nanos) {
+    int i = 0;
+    while (i < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[i]) {
+      i++;
+    }
+    buckets[i].increment();
+    sumNanos.add(nanos);
+  }
+
+  public long count() {
+    long count = 0;
+    for (final LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  @Override
+  public void render(final String name, final StringBuilder sb) {
+    long cumulative = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i].sum();
+      final double bound = i < BUCKETS_SECONDS.length ?
+              BUCKETS_SECONDS[i] :
+              Double.POSITIVE_INFINITY;
+      sb.append(name)
+        .append("_bucket")
+        .append(Metrics.formatLabels(labels, "le", Metrics.formatValue(bound)))
+        .append(" ")
+        .append(cumulative)
+        .append("\n");
+    }
+    final String formattedLabels = Metrics.formatLabels(labels, null, null);
+    sb.append(name)
+      .append("_sum")
+      .append(formattedLabels)
+      .append(" ")
+      .append(Metrics.formatValue(sumNanos.sum() / 1e9))
+      .append("\n");
+    sb.append(name).append("_count").append(formattedLabels).append(" ").append(cumulative)
+      .append("\n");
+  }
+}
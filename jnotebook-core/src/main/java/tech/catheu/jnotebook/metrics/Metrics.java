@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The metrics registry of the process. Metrics are cheap to update: they are backed by
+ * LongAdders, and only aggregated when scraped.
+ * Metrics are rendered in the prometheus text format.
+ */
+public final class Metrics {
+
+  private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+  private Metrics() {
+  }
+
+  /**
+   * Returns the counter with the given name and labels. Creates it if it does not exist.
+   * labels are name and value pairs.
+   */
+  public static Counter counter(final String name, final String help, final String... labels) {
+    return (Counter) family(name, help, Type.COUNTER).child(labels, () -> new Counter(labels));
+  }
+
+  /**
+   * Returns the histogram with the given name and labels. Creates it if it does not exist.
+   * Observations are in nanoseconds, rendered in seconds.
+   */
+  public static Histogram histogram(final String name, final String help,
+                                    final String... labels) {
+    return (Histogram) family(name, help, Type.HISTOGRAM).child(labels,
+                                                                () -> new Histogram(labels));
+  }
+
+  /**
+   * Registers a gauge. Replaces the gauge with the same name and labels if it exists.
+   */
+  public static void gauge(final String name, final String help, final DoubleSupplier value,
+                           final String... labels) {
+    family(name, help, Type.GAUGE).replaceChild(labels, new Gauge(labels, value));
+  }
+
+  /**
+   * Removes the gauge with the given name and labels if it exists.
+   */
+  public static void removeGauge(final String name, final String... labels) {
+    final Family family;
+    synchronized (Metrics.class) {
+      family = FAMILIES.get(name);
+    }
+    if (family != null) {
+      family.removeChild(labels);
+    }
+  }
+
+  public static synchronized String scrape() {
+    final StringBuilder sb = new StringBuilder();
+    for (final Family family : FAMILIES.values()) {
+      family.render(sb);
+    }
+    return sb.toString();
+  }
+
+  private static synchronized Family family(final String name, final String help,
+                                            final Type type) {
+    final Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (family.type != type) {
+      throw new IllegalArgumentException(String.format(
+              "Metric %s is already registered as a %s",
+              name,
+              family.type));
+    }
+    return family;
+  }
+
+  static String formatLabels(final String[] labels, final String extraName,
+                             final String extraValue) {
+    if (labels.length == 0 && extraName == null) {
+      return "";
+    }
+    final StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i + 1 < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append("\"");
+    }
+    if (extraName != null) {
+      if (labels.length > 0) {
+        sb.append(",");
+      }
+      sb.append(extraName).append("=\"").append(extraValue).append("\"");
+    }
+    return sb.append("}").toString();
+  }
+
+  static String formatValue(final double value) {
+    if (value == Double.POSITIVE_INFINITY) {
+      return "+Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static String escape(final String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private enum Type {
+    COUNTER, GAUGE, HISTOGRAM
+  }
+
+  interface Metric {
+    void render(String name, StringBuilder sb);
+  }
+
+  private static class Family {
+    private final String name;
+    private final String help;
+    private final Type type;
+    private final Map<List<String>, Metric> children = new LinkedHashMap<>();
+
+    private Family(final String name, final String help, final Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    private synchronized Metric child(final String[] labels,
+                                      final Supplier<Metric> creator) {
+      return children.computeIfAbsent(List.of(labels), l -> creator.get());
+    }
+
+    private synchronized void replaceChild(final String[] labels, final Metric metric) {
+      children.put(List.of(labels), metric);
+    }
+
+    private synchronized void removeChild(final String[] labels) {
+      children.remove(List.of(labels));
+    }
+
+    private synchronized void render(final StringBuilder sb) {
+      sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+      sb.append("# TYPE ").append(name).append(" ")
+        .append(type.name().toLowerCase(Locale.ENGLISH)).append("\n");
+      for (final Metric metric : new ArrayList<>(children.values())) {
+        metric.render(name, sb);
+      }
+    }
+  }
+
+  private record Gauge(String[] labels, DoubleSupplier value) implements Metric {
+    @Override
+    public void render(final String name, final StringBuilder sb) {
+      sb.append(name)
+        .append(formatLabels(labels, null, null))
+        .append(" ")
+        .append(formatValue(value.getAsDouble()))
+        .append("\n");
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.function.Supplier;
+
+/**
+ * The stages of the notebook pipeline, from a file change to the page update.
+ * Each stage duration is observed in a latency histogram, and emitted as a JFR event when a flight
+ * recording is running.
+ */
+public enum Stage {
+  PARSE("parse"),
+  ANALYSIS("analysis"),
+  EVAL("eval"),
+  // the compilation and the import of the declarations compiled in a single class
+  BATCH("batch"),
+  RENDER("render"),
+  SEND("send");
+
+  private final String label;
+  private final Histogram histogram;
+
+  Stage(final String label) {
+    this.label = label;
+    this.histogram = Metrics.histogram("jnotebook_stage_duration_seconds",
+                                       "Duration of the notebook pipeline stages.",
+                                       "stage",
+                                       label);
+  }
+
+  public <T> T time(final Supplier<T> supplier) {
+    final Timing timing = start();
+    try {
+      return supplier.get();
+    } finally {
+      timing.stop();
+    }
+  }
+
+  /**
+   * Starts timing the stage. The timing can be stopped in another thread - eg in a callback.
+   */
+  public Timing start() {
+    return new Timing(this);
+  }
+
+  public static final class Timing {
+    private final Stage stage;
+    private final StageEvent event = new StageEvent();
+    private final long start;
+
+    private Timing(final Stage stage) {
+      this.stage = stage;
+      event.begin();
+      this.start = System.nanoTime();
+    }
+
+    public void stop() {
+      stage.histogram.observeNanos(System.nanoTime() - start);
+      event.end();
+      if (event.shouldCommit()) {
+        event.stage = stage.label;
+        event.commit();
+      }
+    }
+  }
+
+  @Name("tech.catheu.jnotebook.Stage")
+  @Label("Notebook Stage")
+  @Category("jnotebook")
+  @Description("A stage of the notebook pipeline")
+  static class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+  }
+}
@@ -77,8 +77,9 @@ public class StaticParser {
     return snippetsOf(filePath, lines);
   }
 
+  // synchronized: the analysis shell is shared
   @NonNull
-  public StaticParsing snippetsOf(@NonNull Path filePath, @NonNull List<String> lines) {
+  public synchronized StaticParsing snippetsOf(@NonNull Path filePath, @NonNull List<String> lines) {
     if (lines.isEmpty()) {
       return new StaticParsing(filePath,
                                Collections.emptyList(),
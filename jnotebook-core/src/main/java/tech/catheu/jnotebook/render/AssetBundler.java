@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.catheu.jnotebook.assets.Asset;
+import tech.catheu.jnotebook.assets.AssetStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes a rendered notebook page independent of the CDNs: the assets still referenced by the page
+ * are embedded in the page, or copied next to it. Run it last: the {@link HtmlOptimizer} removes
+ * the libraries that are not used by the notebook, so only the used libraries are bundled.
+ * Assets are identified by the data-jnb-asset attribute of their script and stylesheet tags.
+ * If an asset is not available locally, its CDN url is kept.
+ */
+public class AssetBundler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AssetBundler.class);
+
+  public static final String ASSET_ATTRIBUTE = "data-jnb-asset";
+  public static final String ASSETS_FOLDER = "assets";
+
+  public enum Mode {
+    /**
+     * Assets are loaded from the CDNs.
+     */
+    CDN,
+    /**
+     * Assets are embedded in the page, as data urls.
+     */
+    INLINE,
+    /**
+     * Assets are copied in an assets folder next to the page.
+     */
+    LOCAL
+  }
+
+  private final AssetStore assetStore;
+  private final Mode mode;
+  // asset to data url - reused by the next pages
+  private final Map<Asset, String> dataUrls = new ConcurrentHashMap<>();
+
+  public AssetBundler(final AssetStore assetStore, final Mode mode) {
+    this.assetStore = assetStore;
+    this.mode = mode;
+  }
+
+  public String bundle(final String html, final Path outputFile) {
+    if (mode == Mode.CDN) {
+      return html;
+    }
+    final Document doc = Jsoup.parse(html);
+    doc.outputSettings().prettyPrint(false);
+    for (final Element element : doc.select("[" + ASSET_ATTRIBUTE + "]")) {
+      final Asset asset = Asset.valueOf(element.attr(ASSET_ATTRIBUTE));
+      final Optional<AssetStore.StoredAsset> storedAsset = assetStore.fetch(asset);
+      if (storedAsset.isEmpty()) {
+        continue;
+      }
+      final String url = mode == Mode.INLINE ?
+              dataUrl(storedAsset.get()) :
+              copyNextTo(storedAsset.get(), outputFile);
+      element.attr(element.tagName().equals("link") ? "href" : "src", url);
+      // the local file is not the CDN file: stylesheet urls are rewritten, and cross-origin
+      // checks fail for files opened from the disk
+      element.removeAttr("integrity").removeAttr("crossorigin");
+    }
+    return doc.outerHtml();
+  }
+
+  private String dataUrl(final AssetStore.StoredAsset storedAsset) {
+    return dataUrls.computeIfAbsent(storedAsset.asset(), asset -> {
+      try {
+        final String mediaType = asset.isStylesheet() ? "text/css" : "text/javascript";
+        return "data:" + mediaType + ";base64," + Base64.getEncoder()
+                                                        .encodeToString(Files.readAllBytes(
+                                                                storedAsset.path()));
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("Failed reading asset %s", storedAsset.path()),
+                                   e);
+      }
+    });
+  }
+
+  // returns the url relative to the page
+  private static String copyNextTo(final AssetStore.StoredAsset storedAsset,
+                                   final Path outputFile) {
+    final Path parent = outputFile.toAbsolutePath().getParent();
+    final Path target = parent.resolve(ASSETS_FOLDER).resolve(storedAsset.fileName());
+    // file names contain the hash of the content: an existing file does not need to be copied again
+    if (!Files.exists(target)) {
+      try {
+        Files.createDirectories(target.getParent());
+        final Path tempTarget =
+                Files.createTempFile(target.getParent(), storedAsset.asset().name(), ".tmp");
+        Files.copy(storedAsset.path(), tempTarget, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempTarget,
+                   target,
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        LOG.debug("Copied {} to {}", storedAsset.fileName(), target);
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("Failed copying asset %s to %s",
+                                                 storedAsset.path(),
+                                                 target), e);
+      }
+    }
+    return ASSETS_FOLDER + "/" + storedAsset.fileName();
+  }
+}
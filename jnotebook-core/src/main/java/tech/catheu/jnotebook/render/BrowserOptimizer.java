@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+
+/**
+ * Pre-renders the components of a notebook page in a headless browser: tailwind styles, latex and
+ * mermaid diagrams. Slow - it starts a browser. Run the {@link HtmlOptimizer} first: the components
+ * it pre-renders in the jvm are not rendered again in the browser.
+ */
+public class BrowserOptimizer {
+
+  private final int maxTabs;
+  private BrowserSession session = null;
+
+  public BrowserOptimizer(final int maxTabs) {
+    this.maxTabs = maxTabs;
+  }
+
+  public String optimize(final String html) {
+    // remove scripts that cannot be optimized
+    final Document originalDoc = Jsoup.parse(html);
+    originalDoc.outputSettings().prettyPrint(false);
+    final Elements noOptiScripts = originalDoc.head().select(".jnb-no-opti").remove();
+    final String htmlForOpti = originalDoc.outerHtml();
+
+    // render the file with javascript in a browser and parse the content
+    final String htmlWithOpti = session().render(htmlForOpti);
+
+    // remove scripts that were optimized
+    final Document notebookWithOpti = Jsoup.parse(htmlWithOpti);
+    notebookWithOpti.outputSettings().prettyPrint(false);
+    // remove the scripts that are not necessary anymore
+    notebookWithOpti.head().select(".jnb-opti").remove();
+
+    // put back scripts that cannot be optimized
+    notebookWithOpti.head().appendChildren(noOptiScripts);
+
+    return "<!DOCTYPE html>\n" + notebookWithOpti.outerHtml();
+  }
+
+  // the browser session is started on first use, and reused by the next notebooks
+  private synchronized BrowserSession session() {
+    if (session == null) {
+      session = new BrowserSession(maxTabs);
+    }
+    return session;
+  }
+
+  public synchronized void stop() {
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+  }
+}
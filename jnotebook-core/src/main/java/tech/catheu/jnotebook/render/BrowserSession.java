@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.bonigarcia.wdm.WebDriverManager;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Queue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A long-lived headless browser session. Documents are served from memory by a single local
+ * server, and loaded by headless browsers that are reused across documents.
+ * At most maxTabs documents are loaded concurrently: each one needs its own browser, because a
+ * WebDriver cannot be used by multiple threads.
+ */
+public class BrowserSession implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BrowserSession.class);
+
+  private final HttpServer server;
+  private final String baseUrl;
+  private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+  private final Semaphore tabs;
+  private final Queue<WebDriver> idleDrivers = new ConcurrentLinkedQueue<>();
+  private final Queue<WebDriver> allDrivers = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed = false;
+
+  public BrowserSession(final int maxTabs) {
+    this.tabs = new Semaphore(maxTabs);
+    WebDriverManager.chromedriver().setup();
+    try {
+      // port 0: the system picks a free port
+      this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                                      0);
+    } catch (IOException e) {
+      LOG.error("Failed to create a server: ", e);
+      throw new RuntimeException("Failed to create a server.", e);
+    }
+    server.createContext("/", this::serveDocument);
+    server.start();
+    this.baseUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Loads the html document in a browser and returns the resulting page source.
+   */
+  public String render(final String html) {
+    if (closed) {
+      throw new IllegalStateException("Browser session is closed.");
+    }
+    final String path = "/" + UUID.randomUUID() + ".html";
+    documents.put(path, html.getBytes(StandardCharsets.UTF_8));
+    try {
+      tabs.acquire();
+    } catch (InterruptedException e) {
+      documents.remove(path);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for a browser tab", e);
+    }
+    WebDriver driver = null;
+    try {
+      driver = borrowDriver();
+      driver.get(baseUrl + path);
+      final String pageSource = driver.getPageSource();
+      idleDrivers.add(driver);
+      return pageSource;
+    } catch (WebDriverException e) {
+      // the browser may be in a bad state - do not reuse it
+      if (driver != null) {
+        quit(driver);
+      }
+      throw e;
+    } finally {
+      documents.remove(path);
+      tabs.release();
+    }
+  }
+
+  private WebDriver borrowDriver() {
+    final WebDriver idleDriver = idleDrivers.poll();
+    if (idleDriver != null) {
+      return idleDriver;
+    }
+    LOG.info("Starting a headless browser");
+    final WebDriver driver = new ChromeDriver(new ChromeOptions().addArguments("--headless=new"));
+    allDrivers.add(driver);
+    return driver;
+  }
+
+  private void serveDocument(final HttpExchange exchange) throws IOException {
+    final byte[] document = documents.get(exchange.getRequestURI().getPath());
+    if (document == null) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "text/html");
+    exchange.sendResponseHeaders(200, document.length);
+    try (final OutputStream responseStream = exchange.getResponseBody()) {
+      responseStream.write(document);
+    }
+  }
+
+  private void quit(final WebDriver driver) {
+    allDrivers.remove(driver);
+    try {
+      driver.quit();
+    } catch (WebDriverException e) {
+      LOG.warn("Failed to quit browser: {}", e.getMessage());
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    server.stop(0);
+    idleDrivers.clear();
+    WebDriver driver;
+    while ((driver = allDrivers.poll()) != null) {
+      quit(driver);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+import static tech.catheu.jnotebook.render.Renderer.CM_CONTENT;
+
+/**
+ * Optimizes a rendered notebook page in the jvm, for static publishing:
+ * <ul>
+ *   <li>java code is highlighted, highlight.js is removed</li>
+ *   <li>the table of contents is generated, tocbot is removed</li>
+ *   <li>libraries that are not used by the notebook are removed</li>
+ * </ul>
+ * Libraries are identified by the data-jnb-lib attribute of their script and stylesheet tags.
+ */
+public class HtmlOptimizer {
+
+  public static final String LIBRARY_ATTRIBUTE = "data-jnb-lib";
+
+  private static final String HIGHLIGHT_LIBRARY = "highlight";
+  private static final String TOC_LIBRARY = "tocbot";
+  // library to the selector of the elements it renders
+  private static final Map<String, String> LIBRARY_TO_USAGE = Map.of("katex",
+                                                                     ".katex",
+                                                                     "mermaid",
+                                                                     ".mermaid",
+                                                                     "vega",
+                                                                     ".vega-embed",
+                                                                     "plotly",
+                                                                     ".js-plotly-plot",
+                                                                     "flamegraph",
+                                                                     ".flame");
+  private static final String NOTEBOOK_SELECTOR = "#notebook";
+  private static final String TOC_SELECTOR = "#toc";
+  private static final String HEADINGS_SELECTOR = "h1, h2, h3";
+
+  public String optimize(final String html) {
+    final Document doc = Jsoup.parse(html);
+    doc.outputSettings().prettyPrint(false);
+    highlightCode(doc);
+    buildTableOfContents(doc);
+    removeUnusedLibraries(doc);
+    return doc.outerHtml();
+  }
+
+  private static void highlightCode(final Document doc) {
+    final Elements codeElements = doc.select("div." + CM_CONTENT);
+    if (codeElements.isEmpty()) {
+      removeLibrary(doc, HIGHLIGHT_LIBRARY);
+      return;
+    }
+    codeElements.forEach(JavaSyntaxHighlighter::highlight);
+    // keep the stylesheet
+    removeLibraryScripts(doc, HIGHLIGHT_LIBRARY);
+  }
+
+  /**
+   * Generates the same markup as tocbot, without the collapsing: collapsed entries would never be
+   * expanded without the tocbot script.
+   */
+  private static void buildTableOfContents(final Document doc) {
+    final Element toc = doc.selectFirst(TOC_SELECTOR);
+    final Element notebook = doc.selectFirst(NOTEBOOK_SELECTOR);
+    if (toc == null || notebook == null) {
+      return;
+    }
+    final Elements headings = notebook.select(HEADINGS_SELECTOR);
+    if (headings.isEmpty()) {
+      removeLibrary(doc, TOC_LIBRARY);
+      return;
+    }
+    toc.empty();
+    final Deque<TocList> lists = new ArrayDeque<>();
+    lists.push(new TocList(toc.appendElement("ol").addClass("toc-list")));
+    int headingIdx = 0;
+    for (final Element heading : headings) {
+      final int level = heading.tagName().charAt(1) - '0';
+      if (heading.id().isEmpty()) {
+        heading.id("jnb-heading-" + headingIdx);
+      }
+      headingIdx++;
+      TocList list = lists.peek();
+      while (lists.size() > 1 && level < list.level) {
+        lists.pop();
+        list = lists.peek();
+      }
+      if (list.level == 0) {
+        list.level = level;
+      } else if (level > list.level && list.lastItem != null) {
+        final Element subList =
+                list.lastItem.appendElement("ol").addClass("toc-list").addClass("is-collapsible");
+        list = new TocList(subList);
+        list.level = level;
+        lists.push(list);
+      }
+      list.lastItem = list.element.appendElement("li").addClass("toc-list-item");
+      list.lastItem.appendElement("a")
+                   .attr("href", "#" + heading.id())
+                   .addClass("toc-link")
+                   .addClass("node-name--" + heading.tagName().toUpperCase())
+                   .text(heading.text());
+    }
+    // keep the stylesheet
+    removeLibraryScripts(doc, TOC_LIBRARY);
+  }
+
+  private static void removeUnusedLibraries(final Document doc) {
+    final Element notebook = doc.selectFirst(NOTEBOOK_SELECTOR);
+    LIBRARY_TO_USAGE.forEach((library, usageSelector) -> {
+      if (notebook == null || notebook.select(usageSelector).isEmpty()) {
+        removeLibrary(doc, library);
+      }
+    });
+  }
+
+  private static void removeLibrary(final Document doc, final String library) {
+    doc.select("[" + LIBRARY_ATTRIBUTE + "=" + library + "]").remove();
+  }
+
+  private static void removeLibraryScripts(final Document doc, final String library) {
+    doc.select("script[" + LIBRARY_ATTRIBUTE + "=" + library + "]").remove();
+  }
+
+  private static class TocList {
+    private final Element element;
+    // level of the headings in this list. 0 until the first heading is added
+    private int level = 0;
+    private Element lastItem = null;
+
+    private TocList(final Element element) {
+      this.element = element;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.nodes.Element;
+
+import java.util.Set;
+
+/**
+ * Highlights java code in the jvm. Produces the same markup as highlight.js: tokens are wrapped in
+ * spans with the hljs-* classes, so the highlight.js stylesheets apply.
+ * This is a lexical highlighter: it does not parse the code, it only recognizes comments, strings,
+ * numbers, annotations, keywords, primitive types and literals.
+ */
+public class JavaSyntaxHighlighter {
+
+  // module declaration keywords are not included: they are frequent identifiers in notebooks
+  private static final Set<String> KEYWORDS =
+          Set.of("abstract", "assert", "break", "case", "catch", "class", "const", "continue",
+                 "default", "do", "else", "enum", "extends", "final", "finally", "for", "goto",
+                 "if", "implements", "import", "instanceof", "interface", "native", "new",
+                 "package", "permits", "private", "protected", "public", "record", "return",
+                 "sealed", "static", "strictfp", "super", "switch", "synchronized", "this",
+                 "throw", "throws", "transient", "try", "var", "volatile", "while", "yield");
+  private static final Set<String> TYPES =
+          Set.of("boolean", "byte", "char", "double", "float", "int", "long", "short", "void");
+  private static final Set<String> LITERALS = Set.of("true", "false", "null");
+
+  public static final String HLJS_CLASS = "hljs";
+  public static final String LANGUAGE_CLASS = "language-java";
+
+  private JavaSyntaxHighlighter() {
+  }
+
+  /**
+   * Replaces the text of the element by highlighted code.
+   */
+  public static void highlight(final Element element) {
+    final String code = element.wholeText();
+    element.empty();
+    element.addClass(HLJS_CLASS).addClass(LANGUAGE_CLASS);
+    final Lexer lexer = new Lexer(code);
+    int plainStart = 0;
+    while (lexer.hasNext()) {
+      final int tokenStart = lexer.position;
+      final String tokenClass = lexer.next();
+      if (tokenClass == null) {
+        continue;
+      }
+      if (plainStart < tokenStart) {
+        element.appendText(code.substring(plainStart, tokenStart));
+      }
+      element.appendElement("span")
+             .addClass(tokenClass)
+             .text(code.substring(tokenStart, lexer.position));
+      plainStart = lexer.position;
+    }
+    if (plainStart < code.length()) {
+      element.appendText(code.substring(plainStart));
+    }
+  }
+
+  private static class Lexer {
+    private final String code;
+    private int position = 0;
+
+    private Lexer(final String code) {
+      this.code = code;
+    }
+
+    private boolean hasNext() {
+      return position < code.length();
+    }
+
+    /**
+     * Consumes the next token. Returns its hljs class, or null if it is not highlighted.
+     */
+    private String next() {
+      final char c = code.charAt(position);
+      if (code.startsWith("//", position)) {
+        position = indexOrEnd(code.indexOf('\n', position));
+        return "hljs-comment";
+      } else if (code.startsWith("/*", position)) {
+        final int end = code.indexOf("*/", position + 2);
+        position = end < 0 ? code.length() : end + 2;
+        return "hljs-comment";
+      } else if (code.startsWith("\"\"\"", position)) {
+        position = endOfQuoted("\"\"\"", position + 3, false);
+        return "hljs-string";
+      } else if (c == '"' || c == '\'') {
+        position = endOfQuoted(String.valueOf(c), position + 1, true);
+        return "hljs-string";
+      } else if (Character.isDigit(c) || (c == '.' && Character.isDigit(peek(position + 1)))) {
+        position = endOfNumber(position);
+        return "hljs-number";
+      } else if (c == '@' && Character.isJavaIdentifierStart(peek(position + 1))) {
+        final int end = endOfIdentifier(position + 1);
+        if (code.startsWith("interface", position + 1) && end == position + 10) {
+          position = end;
+          return "hljs-keyword";
+        }
+        position = endOfQualifiedName(end);
+        return "hljs-meta";
+      } else if (Character.isJavaIdentifierStart(c)) {
+        final int end = endOfIdentifier(position);
+        final String word = code.substring(position, end);
+        // non-sealed is the only keyword with a dash
+        if (word.equals("non") && code.startsWith("-sealed", end)) {
+          position = end + 7;
+          return "hljs-keyword";
+        }
+        position = end;
+        if (KEYWORDS.contains(word)) {
+          return "hljs-keyword";
+        } else if (TYPES.contains(word)) {
+          return "hljs-type";
+        } else if (LITERALS.contains(word)) {
+          return "hljs-literal";
+        }
+        return null;
+      } else {
+        position++;
+        return null;
+      }
+    }
+
+    private int endOfQuoted(final String delimiter, final int start,
+                            final boolean singleLine) {
+      int i = start;
+      while (i < code.length()) {
+        final char c = code.charAt(i);
+        if (c == '\\') {
+          i += 2;
+        } else if (code.startsWith(delimiter, i)) {
+          return i + delimiter.length();
+        } else if (singleLine && c == '\n') {
+          // unterminated string - stop at the end of the line
+          return i;
+        } else {
+          i++;
+        }
+      }
+      return code.length();
+    }
+
+    private int endOfNumber(final int start) {
+      int i = start;
+      while (i < code.length()) {
+        final char c = code.charAt(i);
+        final char previous = i > start ? code.charAt(i - 1) : 0;
+        final boolean exponentSign =
+                (c == '+' || c == '-') && (previous == 'e' || previous == 'E') && !isHex(start);
+        if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || exponentSign) {
+          i++;
+        } else {
+          break;
+        }
+      }
+      return i;
+    }
+
+    private boolean isHex(final int numberStart) {
+      return code.startsWith("0x", numberStart) || code.startsWith("0X", numberStart);
+    }
+
+    private int endOfIdentifier(final int start) {
+      int i = start;
+      while (i < code.length() && Character.isJavaIdentifierPart(code.charAt(i))) {
+        i++;
+      }
+      return i;
+    }
+
+    private int endOfQualifiedName(final int start) {
+      int i = start;
+      while (peek(i) == '.' && Character.isJavaIdentifierStart(peek(i + 1))) {
+        i = endOfIdentifier(i + 1);
+      }
+      return i;
+    }
+
+    // returns 0 after the end of the code: it is not a java identifier or digit
+    private char peek(final int index) {
+      return index < code.length() ? code.charAt(index) : 0;
+    }
+
+    private int indexOrEnd(final int index) {
+      return index < 0 ? code.length() : index;
+    }
+  }
+}
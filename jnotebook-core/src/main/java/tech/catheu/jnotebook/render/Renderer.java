@@ -21,6 +21,7 @@ import j2html.tags.specialized.DivTag;
 import jdk.jshell.Diag;
 import jdk.jshell.Snippet;
 import jdk.jshell.SnippetEvent;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,7 @@ import tech.catheu.jnotebook.Main;
 import tech.catheu.jnotebook.evaluate.Interpreted;
 import tech.catheu.jnotebook.evaluate.InterpretedSnippet;
 import tech.catheu.jnotebook.jshell.EvalResult;
+import tech.catheu.jnotebook.jshell.EvalStats;
 import tech.catheu.jnotebook.parse.StaticSnippet;
 
 import java.util.*;
@@ -39,6 +41,7 @@ public class Renderer {
 
   private static final Logger LOG = LoggerFactory.getLogger(Renderer.class);
 
+  public static final String ABSOLUTE = "absolute";
   public static final String CM_CONTENT = "cm-content";
   public static final String CM_EDITOR = "cm-editor";
   public static final String CM_FAILURE = "cm-failure";
@@ -47,8 +50,14 @@ public class Renderer {
   public static final String MAX_W_WIDE = "max-w-wide";
   public static final String MAX_W_PROSE = "max-w-prose";
   public static final String OVERFLOW_Y_HIDDEN = "overflow-y-hidden";
+  public static final String PX_2 = "px-2";
   public static final String PX_8 = "px-8";
   public static final String RELATIVE = "relative";
+  public static final String RIGHT_0 = "right-0";
+  public static final String SELECT_NONE = "select-none";
+  public static final String TEXT_SLATE_400 = "text-slate-400";
+  public static final String TEXT_XS = "text-xs";
+  public static final String TOP_0 = "top-0";
   public static final String VIEWER = "viewer";
   public static final String VIEWER_CODE = "viewer-code";
   public static final String VIEWER_HTML = "viewer-html-";
@@ -57,10 +66,12 @@ public class Renderer {
   public static final String W_FULL = "w-full";
   public static final String WHITESPACE_PRE = "whitespace-pre";
   public static final String RESULT_ERROR = "result-error";
+  public static final String EVAL_STATS = "eval-stats";
+  public static final String EVAL_STATS_CACHED = "eval-stats-cached";
 
   private final Parser parser;
   private final HtmlRenderer renderer;
-
+  private final boolean evalStats;
 
   public Renderer(Main.SharedConfiguration configuration) {
     final MutableDataSet options = new MutableDataSet();
@@ -75,6 +86,7 @@ public class Renderer {
     options.set(HtmlRenderer.RENDER_HEADER_ID, true);
     parser = Parser.builder(options).build();
     renderer = HtmlRenderer.builder(options).build();
+    evalStats = configuration.evalStats;
   }
 
   public final Rendering render(Interpreted interpreted) {
@@ -165,7 +177,9 @@ public class Renderer {
       final String codeLines = combineCodeLines(snippets);
       final EvalHtmlOutputs htmlOuputs = combineOutputs(snippets);
 
-      final DivTag code = codeViewer(codeLines, htmlOuputs.errors.isEmpty());
+      final DivTag code = codeViewer(codeLines,
+                                     htmlOuputs.errors.isEmpty(),
+                                     evalStats ? evalStatsBadge(snippets) : null);
       if (htmlOuputs.evalRes == null && htmlOuputs.stdOut == null && htmlOuputs.errors.isEmpty()) {
         return code;
       }
@@ -288,13 +302,80 @@ public class Renderer {
       return s;
     }
 
-    private static DivTag codeViewer(final String codeLines, final boolean success) {
+    private static DivTag codeViewer(final String codeLines, final boolean success,
+                                     final @Nullable DomContent badge) {
       final DivTag content = div(codeLines).withClasses(CM_CONTENT,
                                                         WHITESPACE_PRE,
                                                         success ? CM_SUCCESS
                                                                 : CM_FAILURE);
       final DivTag cm = div(div(content).withClasses(CM_SCROLLER)).withClasses(CM_EDITOR);
-      return div(cm).withClasses(VIEWER, VIEWER_CODE, W_FULL, MAX_W_WIDE);
+      if (badge == null) {
+        return div(cm).withClasses(VIEWER, VIEWER_CODE, W_FULL, MAX_W_WIDE);
+      }
+      return div(cm, badge).withClasses(VIEWER, VIEWER_CODE, W_FULL, MAX_W_WIDE, RELATIVE);
+    }
+
+    /**
+     * Sums the stats of the snippets of a code block. The block is marked as cached if none of its
+     * snippets was evaluated again.
+     */
+    private static DivTag evalStatsBadge(final List<InterpretedSnippet> snippets) {
+      long wallNanos = 0;
+      long cpuNanos = 0;
+      long allocatedBytes = 0;
+      boolean fromCache = true;
+      for (final InterpretedSnippet snippet : snippets) {
+        final EvalStats stats = snippet.evalResult().stats();
+        wallNanos += stats.wallNanos();
+        cpuNanos = cpuNanos < 0 || stats.cpuNanos() < 0 ? -1 : cpuNanos + stats.cpuNanos();
+        allocatedBytes = allocatedBytes < 0 || stats.allocatedBytes() < 0
+                         ? -1
+                         : allocatedBytes + stats.allocatedBytes();
+        fromCache &= snippet.fromCache();
+      }
+      final List<String> parts = new ArrayList<>();
+      parts.add(formatNanos(wallNanos));
+      if (cpuNanos >= 0) {
+        parts.add("cpu " + formatNanos(cpuNanos));
+      }
+      if (allocatedBytes >= 0) {
+        parts.add("alloc " + formatBytes(allocatedBytes));
+      }
+      if (fromCache) {
+        parts.add("cached");
+      }
+      final List<String> classes = new ArrayList<>(List.of(EVAL_STATS,
+                                                           ABSOLUTE,
+                                                           TOP_0,
+                                                           RIGHT_0,
+                                                           PX_2,
+                                                           TEXT_XS,
+                                                           TEXT_SLATE_400,
+                                                           SELECT_NONE));
+      if (fromCache) {
+        classes.add(EVAL_STATS_CACHED);
+      }
+      return div(String.join(" | ", parts)).withClasses(classes.toArray(new String[]{}));
+    }
+
+    private static String formatNanos(final long nanos) {
+      if (nanos < 1_000_000) {
+        return String.format(Locale.ENGLISH, "%.2f ms", nanos / 1e6);
+      } else if (nanos < 1_000_000_000) {
+        return String.format(Locale.ENGLISH, "%d ms", nanos / 1_000_000);
+      }
+      return String.format(Locale.ENGLISH, "%.2f s", nanos / 1e9);
+    }
+
+    private static String formatBytes(final long bytes) {
+      if (bytes < 1024) {
+        return bytes + " B";
+      } else if (bytes < 1024 * 1024) {
+        return String.format(Locale.ENGLISH, "%.1f KB", bytes / 1024.);
+      } else if (bytes < 1024L * 1024 * 1024) {
+        return String.format(Locale.ENGLISH, "%.1f MB", bytes / (1024. * 1024));
+      }
+      return String.format(Locale.ENGLISH, "%.1f GB", bytes / (1024. * 1024 * 1024));
     }
 
     private static DivTag resultViewer(final DomContent results, final boolean success) {
@@ -13,13 +13,16 @@ import gg.jte.TemplateEngine;
 import gg.jte.TemplateOutput;
 import gg.jte.output.StringOutput;
 import gg.jte.resolve.DirectoryCodeResolver;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.catheu.jnotebook.Main;
+import tech.catheu.jnotebook.assets.Asset;
 import tech.catheu.jnotebook.utils.JavaUtils;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Function;
 
 public class HtmlTemplateEngine {
 
@@ -43,7 +46,18 @@ public class HtmlTemplateEngine {
     return output.toString();
   }
 
-  public record TemplateData(Main.SharedConfiguration config, boolean interactive, String render, List<Path> notebooksInPath) {}
+  // assetUrls returns the url of an asset: a CDN url, or a local url if the asset is vendored
+  public record TemplateData(Main.SharedConfiguration config, boolean interactive, String render, List<Path> notebooksInPath, Function<Asset, String> assetUrls) {
+
+    public String asset(final Asset asset) {
+      return assetUrls.apply(asset);
+    }
+
+    // the integrity of a vendored file is guaranteed by its content hash
+    public @Nullable String integrity(final Asset asset) {
+      return asset(asset).equals(asset.url()) ? asset.integrity() : null;
+    }
+  }
 
 
 }
@@ -7,18 +7,30 @@
  */
 package tech.catheu.jnotebook.server;
 
+import com.google.common.base.Utf8;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.conduits.BytesSentStreamSinkConduit;
+import io.undertow.predicate.Predicate;
+import io.undertow.predicate.Predicates;
+import io.undertow.server.ConnectorStatistics;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
 import io.undertow.util.Headers;
 import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
 import io.undertow.websockets.core.AbstractReceiveListener;
 import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.extensions.PerMessageDeflateHandshake;
 import io.undertow.websockets.spi.WebSocketHttpExchange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,23 +39,40 @@ import org.xnio.Options;
 import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 import tech.catheu.jnotebook.Main;
+import tech.catheu.jnotebook.assets.Asset;
+import tech.catheu.jnotebook.assets.AssetStore;
+import tech.catheu.jnotebook.file.NotebookIndex;
+import tech.catheu.jnotebook.metrics.Metrics;
+import tech.catheu.jnotebook.metrics.Stage;
 import tech.catheu.jnotebook.render.Rendering;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 
 public class InteractiveServer {
 
   private static final Logger LOG = LoggerFactory.getLogger(InteractiveServer.class);
+  private static final String ASSETS_PATH = "/assets/";
+  // assets urls contain the hash of their content: they never change
+  private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
 
   private final Main.InteractiveConfiguration configuration;
   private final Consumer<Path> renderTrigger;
+  private final AssetStore assetStore;
+  private final NotebookIndex notebookIndex;
+  private final ServerMetrics metrics = new ServerMetrics();
 
   private Undertow server;
   private final Queue<WebSocketChannel> channels = new ConcurrentLinkedQueue<>();
@@ -51,22 +80,46 @@ public class InteractiveServer {
   private Rendering lastUpdate;
 
   public InteractiveServer(final Main.InteractiveConfiguration configuration,
-                           Consumer<Path> renderTrigger) {
+                           Consumer<Path> renderTrigger, final AssetStore assetStore,
+                           final NotebookIndex notebookIndex) {
     this.configuration = configuration;
     this.renderTrigger = renderTrigger;
+    this.assetStore = assetStore;
+    this.notebookIndex = notebookIndex;
   }
 
 
   public void start() throws IOException {
+    assetStore.fetchAllAsync();
     RoutingHandler routingHandler = Handlers.routing()
                                             .get("/",
-                                                 new TemplatedHttpHandler(configuration))
-                                            .get("/websocket",
-                                                 new WebSocketProtocolHandshakeHandler(new ConnectionCallback()));
+                                                 new TemplatedHttpHandler(configuration,
+                                                                          notebookIndex,
+                                                                          assetStore))
+                                            .get(ASSETS_PATH + "{file}",
+                                                 new AssetHttpHandler(assetStore))
+                                            .get("/metrics", new MetricsHttpHandler());
+    final WebSocketProtocolHandshakeHandler websocketHandler =
+            new WebSocketProtocolHandshakeHandler(new ConnectionCallback());
+    if (configuration.compressionMinSize >= 0) {
+      // messages are compressed whatever their size: undertow has no threshold for websockets
+      websocketHandler.addExtension(new PerMessageDeflateHandshake(false,
+                                                                   Deflater.DEFAULT_COMPRESSION));
+    }
+    // the websocket upgrade is not encoded
+    final HttpHandler rootHandler = Handlers.path(compressed(routingHandler))
+                                            .addExactPath("/websocket", websocketHandler);
     server = Undertow.builder()
                      .addHttpListener(configuration.port, "localhost")
-                     .setHandler(routingHandler)
+                     .setServerOption(UndertowOptions.ENABLE_STATISTICS, true)
+                     .setHandler(rootHandler)
                      .build();
+    metrics.setConnectionBytesSent(() -> server.getListenerInfo()
+                                               .stream()
+                                               .map(Undertow.ListenerInfo::getConnectorStatistics)
+                                               .filter(Objects::nonNull)
+                                               .mapToLong(ConnectorStatistics::getBytesSent)
+                                               .sum());
 
     // not sure if the config is relevant
     XnioWorker worker = Xnio.getInstance()
@@ -80,6 +133,42 @@ public class InteractiveServer {
     worker.execute(new ServerLauncher());
   }
 
+  /**
+   * Encodes the responses larger than the compression min size with gzip or deflate.
+   * Responses are measured before and after the encoding.
+   */
+  private HttpHandler compressed(final HttpHandler next) {
+    // the last added wrapper is the first to receive the response bytes
+    final HttpHandler measuredNext = exchange -> {
+      exchange.addResponseWrapper((factory, ex) -> new BytesSentStreamSinkConduit(factory.create(),
+                                                                                  metrics::addHttpResponseBytes));
+      next.handleRequest(exchange);
+    };
+    final HttpHandler encodingHandler;
+    if (configuration.compressionMinSize < 0) {
+      encodingHandler = measuredNext;
+    } else {
+      // brotli is not available in undertow
+      final Predicate largerThanMinSize =
+              Predicates.maxContentSize(configuration.compressionMinSize);
+      final ContentEncodingRepository encodings =
+              new ContentEncodingRepository().addEncodingHandler("gzip",
+                                                                 new GzipEncodingProvider(),
+                                                                 50,
+                                                                 largerThanMinSize)
+                                             .addEncodingHandler("deflate",
+                                                                 new DeflateEncodingProvider(),
+                                                                 10,
+                                                                 largerThanMinSize);
+      encodingHandler = new EncodingHandler(measuredNext, encodings);
+    }
+    return exchange -> {
+      exchange.addResponseWrapper((factory, ex) -> new BytesSentStreamSinkConduit(factory.create(),
+                                                                                  metrics::addHttpEncodedResponseBytes));
+      encodingHandler.handleRequest(exchange);
+    };
+  }
+
   private class ServerLauncher implements Runnable {
     @Override
     public void run() {
@@ -96,30 +185,96 @@ public class InteractiveServer {
 
     final HtmlTemplateEngine templateEngine;
     final Main.InteractiveConfiguration configuration;
+    final NotebookIndex notebookIndex;
+    final AssetStore assetStore;
+    final Function<Asset, String> assetUrls;
+    // the page only changes when the notebook listing changes, or when assets are vendored
+    volatile CachedPage cachedPage = null;
 
-    TemplatedHttpHandler(final Main.InteractiveConfiguration configuration) {
+    TemplatedHttpHandler(final Main.InteractiveConfiguration configuration,
+                         final NotebookIndex notebookIndex, final AssetStore assetStore) {
       this.configuration = configuration;
+      this.notebookIndex = notebookIndex;
+      this.assetStore = assetStore;
+      // assets that are not vendored yet are loaded from the CDNs
+      this.assetUrls = asset -> assetStore.get(asset)
+                                          .map(a -> ASSETS_PATH + a.fileName())
+                                          .orElse(asset.url());
       this.templateEngine = new HtmlTemplateEngine();
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-      final List<Path> notebooksInPath;
-      try (Stream<Path> files = Files.find(Path.of(configuration.notebookPath),
-                                           10,
-                                           (path, attributes) -> attributes.isRegularFile() && path.toString()
-                                                                                                   .endsWith(
-                                                                                                           ".jsh"))) {
-        notebooksInPath = files.toList();
+      final List<Path> notebooksInPath = notebookIndex.notebooks();
+      final int storedAssets = assetStore.size();
+      CachedPage page = cachedPage;
+      if (page == null || page.notebooksInPath() != notebooksInPath
+          || page.storedAssets() != storedAssets) {
+        final HtmlTemplateEngine.TemplateData model = new HtmlTemplateEngine.TemplateData(
+                this.configuration,
+                true,
+                null,
+                notebooksInPath,
+                assetUrls);
+        page = new CachedPage(notebooksInPath, storedAssets, templateEngine.render(model));
+        cachedPage = page;
       }
-      final HtmlTemplateEngine.TemplateData model = new HtmlTemplateEngine.TemplateData(
-              this.configuration,
-              true,
-              null,
-              notebooksInPath);
-      final String html = templateEngine.render(model);
       exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/html");
-      exchange.getResponseSender().send(html);
+      exchange.getResponseSender().send(page.html());
+    }
+
+    // notebooksInPath is compared by identity: the index returns a new list when it changes
+    private record CachedPage(List<Path> notebooksInPath, int storedAssets, String html) {
+    }
+  }
+
+  private static class MetricsHttpHandler implements HttpHandler {
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+      exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; version=0.0.4");
+      exchange.getResponseSender().send(Metrics.scrape());
+    }
+  }
+
+  private static class AssetHttpHandler implements HttpHandler {
+
+    final AssetStore assetStore;
+    // assets are small and few: they are kept in memory once read
+    final Map<String, ByteBuffer> contents = new ConcurrentHashMap<>();
+
+    AssetHttpHandler(final AssetStore assetStore) {
+      this.assetStore = assetStore;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+      if (exchange.isInIoThread()) {
+        // reading the file is blocking
+        exchange.dispatch(this);
+        return;
+      }
+      final Deque<String> fileParam = exchange.getQueryParameters().get("file");
+      final String fileName = fileParam == null ? "" : fileParam.getFirst();
+      // only stored assets are served - the file name is not used as a path
+      final AssetStore.StoredAsset storedAsset =
+              assetStore.getByFileName(fileName).orElse(null);
+      if (storedAsset == null) {
+        exchange.setStatusCode(404);
+        exchange.endExchange();
+        return;
+      }
+      final ByteBuffer content = contents.computeIfAbsent(fileName, f -> {
+        try {
+          return ByteBuffer.wrap(Files.readAllBytes(storedAsset.path()));
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("Failed reading asset %s",
+                                                   storedAsset.path()), e);
+        }
+      });
+      exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, storedAsset.asset().contentType());
+      exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+      exchange.getResponseSender().send(content.duplicate());
     }
   }
 
@@ -135,9 +290,22 @@ public class InteractiveServer {
 
   private void sendMessage(final String message) {
     boolean messageSent = false;
+    final int messageBytes = Utf8.encodedLength(message);
     for (final WebSocketChannel channel : channels) {
       if (channel != null && channel.isOpen()) {
-        WebSockets.sendText(message, channel, null);
+        final Stage.Timing sendTiming = Stage.SEND.start();
+        WebSockets.sendText(message, channel, new WebSocketCallback<>() {
+          @Override
+          public void complete(WebSocketChannel channel, Void context) {
+            sendTiming.stop();
+          }
+
+          @Override
+          public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            sendTiming.stop();
+          }
+        });
+        metrics.addWebsocketMessageBytes(messageBytes);
         messageSent = true;
       }
     }
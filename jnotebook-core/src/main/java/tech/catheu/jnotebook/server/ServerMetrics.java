@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.server;
+
+import tech.catheu.jnotebook.metrics.Counter;
+import tech.catheu.jnotebook.metrics.Metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Byte counters of the interactive server, to follow the compression of the responses.
+ * The websocket wire size is not observable per message: it is derived from the bytes sent by the
+ * server connections, minus the encoded http responses. It includes the http headers and the
+ * websocket frame headers, so the websocket ratio is a lower bound.
+ */
+public class ServerMetrics {
+
+  private final Counter httpResponseBytes =
+          Metrics.counter("jnotebook_http_response_bytes_total",
+                          "Http response bytes before encoding.");
+  private final Counter httpEncodedResponseBytes =
+          Metrics.counter("jnotebook_http_response_encoded_bytes_total",
+                          "Http response bytes after encoding.");
+  private final Counter websocketMessageBytes =
+          Metrics.counter("jnotebook_websocket_message_bytes_total",
+                          "Websocket message bytes before compression.");
+  private LongSupplier connectionBytesSent = () -> 0L;
+
+  public ServerMetrics() {
+    Metrics.gauge("jnotebook_websocket_wire_bytes",
+                  "Approximate websocket bytes sent on the wire.",
+                  this::websocketWireBytes);
+    Metrics.gauge("jnotebook_http_compression_ratio",
+                  "Http response bytes before encoding divided by after encoding.",
+                  () -> ratio(httpResponseBytes.get(), httpEncodedResponseBytes.get()));
+    Metrics.gauge("jnotebook_websocket_compression_ratio",
+                  "Websocket message bytes divided by the approximate bytes sent on the wire.",
+                  () -> ratio(websocketMessageBytes.get(), websocketWireBytes()));
+  }
+
+  public void addHttpResponseBytes(final long bytes) {
+    httpResponseBytes.add(bytes);
+  }
+
+  public void addHttpEncodedResponseBytes(final long bytes) {
+    httpEncodedResponseBytes.add(bytes);
+  }
+
+  public void addWebsocketMessageBytes(final long bytes) {
+    websocketMessageBytes.add(bytes);
+  }
+
+  public void setConnectionBytesSent(final LongSupplier connectionBytesSent) {
+    this.connectionBytesSent = connectionBytesSent;
+  }
+
+  private long websocketWireBytes() {
+    return Math.max(0, connectionBytesSent.getAsLong() - httpEncodedResponseBytes.get());
+  }
+
+  private static double ratio(final long raw, final long encoded) {
+    return encoded == 0 ? 1 : (double) raw / encoded;
+  }
+}
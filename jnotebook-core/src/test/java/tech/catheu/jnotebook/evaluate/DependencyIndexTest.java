@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.evaluate;
+
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SuppressWarnings("UnstableApiUsage")
+public class DependencyIndexTest {
+
+  @Test
+  public void testLongChainIsFullyInvalidated() {
+    final int length = 100_000;
+    final MutableGraph<String> chain = GraphBuilder.directed().build();
+    chain.addNode("v0");
+    for (int i = 1; i < length; i++) {
+      chain.putEdge("v" + (i - 1), "v" + i);
+    }
+    final DependencyIndex index =
+            DependencyIndex.of(chain, name -> Integer.parseInt(name.substring(1)), name -> Set.of());
+
+    final BitSet snippetsIdxToRun = new BitSet();
+    index.invalidate(index.node("v0"), new BitSet(), snippetsIdxToRun);
+    assertThat(snippetsIdxToRun.cardinality()).isEqualTo(length);
+
+    final BitSet fromMiddle = new BitSet();
+    index.invalidate(index.node("v" + length / 2), new BitSet(), fromMiddle);
+    assertThat(fromMiddle.nextSetBit(0)).isEqualTo(length / 2);
+    assertThat(fromMiddle.cardinality()).isEqualTo(length / 2);
+  }
+
+  @Test
+  public void testMutatedVariablesAreInvalidated() {
+    // data -> size, data -> fill, fill mutates data, unrelated is independent
+    final MutableGraph<String> graph = GraphBuilder.directed().build();
+    graph.addNode("data");
+    graph.addNode("unrelated");
+    graph.putEdge("data", "size");
+    graph.addNode("fill");
+    graph.putEdge("data", "fill");
+    final Map<String, Integer> snippetIdx = Map.of("data", 0, "unrelated", 1, "size", 2, "fill", 3);
+    final DependencyIndex index =
+            DependencyIndex.of(graph,
+                               snippetIdx::get,
+                               name -> name.equals("fill") ? Set.of("data", "notInGraph")
+                                                           : Set.of());
+
+    final BitSet invalidated = new BitSet();
+    final BitSet snippetsIdxToRun = new BitSet();
+    index.invalidate(index.node("fill"), invalidated, snippetsIdxToRun);
+    assertThat(snippetsIdxToRun.stream().toArray()).containsExactly(0, 2, 3);
+
+    // already invalidated nodes are not visited again
+    index.invalidate(index.node("data"), invalidated, snippetsIdxToRun);
+    assertThat(snippetsIdxToRun.stream().toArray()).containsExactly(0, 2, 3);
+    assertThat(index.node("notInGraph")).isEqualTo(-1);
+  }
+}
@@ -7,28 +7,54 @@
  */
 package tech.catheu.jnotebook.evaluate;
 
+import com.microsoft.jfr.RecordingConfiguration;
+import j2html.tags.specialized.DivTag;
 import jdk.jshell.Diag;
 import jdk.jshell.SnippetEvent;
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import tech.catheu.jnotebook.Main;
+import tech.catheu.jnotebook.Nb;
 import tech.catheu.jnotebook.jshell.EvalResult;
+import tech.catheu.jnotebook.jshell.EvalStats;
 import tech.catheu.jnotebook.jshell.ShellProvider;
 import tech.catheu.jnotebook.parse.StaticParser;
 import tech.catheu.jnotebook.parse.StaticParsing;
 
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 
 public class GreedyInterpreterTest {
 
-  private static final ShellProvider shellProvider = getTestShellProvider();
-  private static final StaticParser staticParser = new StaticParser(shellProvider);
+  // the local storage is shared by the shells of the process: compiled declarations are not
+  // cached in the local storage of the user
+  @TempDir
+  static Path localStorage;
+  private static ShellProvider shellProvider;
+  private static StaticParser staticParser;
+
+  @BeforeAll
+  static void setUp() {
+    shellProvider = getTestShellProvider();
+    staticParser = new StaticParser(shellProvider);
+  }
 
   // TODO basic assert on error case
   // comments, all kind of ops class, record, loops, if else statement
@@ -431,7 +457,7 @@ public class GreedyInterpreterTest {
 
   // this is the main use case that make partial recomputation pretty inefficient in Java, compared to languages that have immutability only
   // any action on/with a reference can imply that the reference has to be refreshed from the start
-  // hence when a reference is touched, any predecessors of successors of this reference has to be recomputed
+  // hence when a snippet may mutate a reference, the reference and its successors have to be recomputed
   @Test
   public void testMutationRequiresRerunUpStream() {
     final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
@@ -466,6 +492,432 @@ public class GreedyInterpreterTest {
     assertThat(out2.interpretedSnippets().get(2).evalResult().out().trim()).isEqualTo("{newKey=anotherValue}");
   }
 
+  @Test
+  public void testUnchangedSnippetIsServedFromCache() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testUnchangedSnippetIsServedFromCache");
+    final String edit1 = """
+            int a = 1;
+            int b = 2;
+            """;
+    final Interpreted out1 =
+            interpreter.interpret(staticParser.snippetsOf(filePath, edit1.lines().toList()));
+    assertThat(out1.interpretedSnippets()).noneMatch(InterpretedSnippet::fromCache);
+    final EvalStats stats1 = out1.interpretedSnippets().get(0).evalResult().stats();
+    assertThat(stats1.wallNanos()).isPositive();
+
+    final String edit2 = """
+            int a = 1;
+            int b = 3;
+            """;
+    final Interpreted out2 =
+            interpreter.interpret(staticParser.snippetsOf(filePath, edit2.lines().toList()));
+    assertThat(out2.interpretedSnippets().get(0).fromCache()).isTrue();
+    // the cached result keeps the stats of its evaluation
+    assertThat(out2.interpretedSnippets().get(0).evalResult().stats()).isEqualTo(stats1);
+    assertThat(out2.interpretedSnippets().get(1).fromCache()).isFalse();
+    assertThat(out2.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("3");
+  }
+
+  @Test
+  public void testEditOnlyRerunsDownstream() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testEditOnlyRerunsDownstream");
+    final String edit1 = """
+            static List<Integer> load() { return new ArrayList<>(List.of(1, 2, 3)); }
+            List<Integer> data = load();
+            int size = data.size();
+            String chart = "size: " + size;
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out1)).containsExactly(0, 1, 2, 3);
+
+    // edit the last cell - the data is not loaded again
+    final String edit2 = """
+            static List<Integer> load() { return new ArrayList<>(List.of(1, 2, 3)); }
+            List<Integer> data = load();
+            int size = data.size();
+            String chart = "count: " + size;
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(3);
+    assertThat(out2.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("\"count: 3\"");
+
+    // edit the loading - everything downstream is run again
+    final String edit3 = """
+            static List<Integer> load() { return new ArrayList<>(List.of(1, 2)); }
+            List<Integer> data = load();
+            int size = data.size();
+            String chart = "count: " + size;
+            """;
+    final Interpreted out3 = interpret(interpreter, filePath, edit3);
+    assertThat(rerunSnippets(out3)).containsExactly(0, 1, 2, 3);
+    assertThat(out3.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("\"count: 2\"");
+  }
+
+  @Test
+  public void testIndependentBranchesAreNotRerun() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testIndependentBranchesAreNotRerun");
+    final String edit1 = """
+            int a = 1;
+            int b = 2;
+            int c = a + 1;
+            int d = b + 1;
+            """;
+    interpret(interpreter, filePath, edit1);
+
+    final String edit2 = """
+            int a = 1;
+            int b = 2;
+            int c = a + 2;
+            int d = b + 1;
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(2);
+    assertThat(out2.interpretedSnippets().get(2).evalResult().events().get(0).value()).isEqualTo("3");
+  }
+
+  @Test
+  public void testMutationRerunsTheMutatedVariable() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testMutationRerunsTheMutatedVariable");
+    final String edit1 = """
+            List<Integer> data = new ArrayList<>();
+            int unrelated = 7;
+            data.add(1);
+            int size = data.size();
+            """;
+    interpret(interpreter, filePath, edit1);
+
+    // the new snippet mutates data: data is instantiated again
+    final String edit2 = """
+            List<Integer> data = new ArrayList<>();
+            int unrelated = 7;
+            data.add(2);
+            int size = data.size();
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(0, 2, 3);
+    assertThat(out2.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("1");
+
+    // the removed snippet mutated data: data is instantiated again
+    final String edit3 = """
+            List<Integer> data = new ArrayList<>();
+            int unrelated = 7;
+            int other = 2;
+            int size = data.size();
+            """;
+    final Interpreted out3 = interpret(interpreter, filePath, edit3);
+    assertThat(rerunSnippets(out3)).containsExactly(0, 2, 3);
+    assertThat(out3.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("0");
+  }
+
+  @Test
+  public void testMutationInANotebookMethodRerunsTheMutatedVariable() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testMutationInANotebookMethodRerunsTheMutatedVariable");
+    final String edit1 = """
+            List<Integer> data = new ArrayList<>();
+            static void fill(List<Integer> l) { l.add(1); }
+            fill(data);
+            int size = data.size();
+            """;
+    interpret(interpreter, filePath, edit1);
+
+    final String edit2 = """
+            List<Integer> data = new ArrayList<>();
+            static void fill(List<Integer> l) { l.add(2); }
+            fill(data);
+            int size = data.size();
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(0, 1, 2, 3);
+    assertThat(out2.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("1");
+  }
+
+  @Test
+  public void testMutationBelowAnEditedReaderRerunsTheMutatedVariable() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testMutationBelowAnEditedReaderRerunsTheMutatedVariable");
+    final String edit1 = """
+            List<Integer> data = new ArrayList<>();
+            int size = data.size();
+            data.add(1);
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(out1.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("0");
+
+    // size reads data, mutated below: data is instantiated again, as in a top to bottom run
+    final String edit2 = """
+            List<Integer> data = new ArrayList<>();
+            int size = data.size() + 0;
+            data.add(1);
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(0, 1, 2);
+    assertThat(out2.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("0");
+  }
+
+  @Test
+  public void testChartEditDoesNotRerunTheData() {
+    final Main.SharedConfiguration configuration = new Main.SharedConfiguration();
+    // the notebook utils and their libraries
+    configuration.classPath = Stream.of(Nb.class, DivTag.class, JSONObject.class,
+                                        RecordingConfiguration.class)
+                                    .map(c -> c.getProtectionDomain().getCodeSource().getLocation())
+                                    .map(url -> Path.of(URI.create(url.toString())).toString())
+                                    .collect(Collectors.joining(File.pathSeparator));
+    configuration.noUtils = true;
+    configuration.localStoragePath = localStorage.toString();
+    final GreedyInterpreter interpreter = new GreedyInterpreter(new ShellProvider(configuration));
+    final Path filePath = Paths.get("testChartEditDoesNotRerunTheData");
+    final String edit1 = """
+            import tech.catheu.jnotebook.Nb;
+            Map<String, Object> data = new HashMap<>(Map.of("values", List.of(1, 2, 3)));
+            Nb.vega(data);
+            """;
+    interpret(interpreter, filePath, edit1);
+
+    // the rendering helpers do not mutate the data: it is not loaded again
+    final String edit2 = """
+            import tech.catheu.jnotebook.Nb;
+            Map<String, Object> data = new HashMap<>(Map.of("values", List.of(1, 2, 3)));
+            Nb.vega(Objects.requireNonNull(data));
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(2);
+    assertNoDiagnostics(out2.interpretedSnippets().get(2).evalResult());
+
+    final String edit3 = """
+            import tech.catheu.jnotebook.Nb;
+            Map<String, Object> data = new HashMap<>(Map.of("values", List.of(1, 2, 3)));
+            Nb.row(Nb.vega(Map.copyOf(data)), String.valueOf(data));
+            """;
+    final Interpreted out3 = interpret(interpreter, filePath, edit3);
+    assertThat(rerunSnippets(out3)).containsExactly(2);
+    assertNoDiagnostics(out3.interpretedSnippets().get(2).evalResult());
+    interpreter.stop();
+  }
+
+  @Test
+  public void testUnchangedImportsAreServedFromCache() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testUnchangedImportsAreServedFromCache");
+    final String edit1 = """
+            import java.util.ArrayList;
+            import java.util.List;
+            List<Integer> data = new ArrayList<>(List.of(1, 2));
+            int size = data.size();
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out1)).containsExactly(0, 1, 2, 3);
+
+    final Interpreted out2 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out2)).isEmpty();
+    assertThat(out2.interpretedSnippets().get(3).evalResult().events().get(0).value()).isEqualTo("2");
+  }
+
+  @Test
+  public void testImportChangeOnlyRerunsReferencingSnippets() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testImportChangeOnlyRerunsReferencingSnippets");
+    final String edit1 = """
+            import java.util.List;
+            import java.time.LocalDate;
+            List<Integer> list = List.of(1);
+            LocalDate date = LocalDate.of(2023, 1, 1);
+            int n = 2;
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out1)).containsExactly(0, 1, 2, 3, 4);
+
+    // drop an import - only the snippet using it is run again
+    // LocalDate is not in the default imports of the shell: it does not resolve anymore
+    final String edit2 = """
+            import java.util.List;
+            List<Integer> list = List.of(1);
+            LocalDate date = LocalDate.of(2023, 1, 1);
+            int n = 2;
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(2);
+    assertThat(out2.interpretedSnippets().get(2).evalResult().diagnostics().get(0)).isNotEmpty();
+
+    // add it back
+    final Interpreted out3 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out3)).containsExactly(1, 3);
+    assertNoDiagnostics(out3.interpretedSnippets().get(3).evalResult());
+  }
+
+  @Test
+  public void testOnDemandImportRerunsEverything() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testOnDemandImportRerunsEverything");
+    final String edit1 = """
+            int n = 2;
+            String s = "a";
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out1)).containsExactly(0, 1);
+
+    final String edit2 = """
+            import java.util.*;
+            int n = 2;
+            String s = "a";
+            """;
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  public void testDeclarationsAreCompiledInBatchOnColdStart() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider);
+    final Path filePath = Paths.get("testDeclarationsAreCompiledInBatchOnColdStart");
+    final StringBuilder declarations = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      declarations.append("static int f").append(i).append("(int n) { return n + ").append(i).append("; }\n");
+    }
+    final String edit1 = declarations + """
+            record Point(int x, int y) {}
+            int total = f3(1) + f9(1) + new Point(1, 2).x();
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out1)).hasSize(12);
+    // compiled declarations have no JShell event
+    for (int i = 0; i < 11; i++) {
+      final EvalResult evalResult = out1.interpretedSnippets().get(i).evalResult();
+      assertThat(evalResult.events()).isEmpty();
+      assertThat(evalResult.diagnostics()).isEmpty();
+      assertThat(evalResult.unresolvedDeps()).isEmpty();
+    }
+    assertThat(out1.interpretedSnippets().get(11).evalResult().events().get(0).value()).isEqualTo("15");
+
+    // edit a declaration and remove another one: the batch is dropped
+    final String edit2 = edit1.replace("return n + 3;", "return n + 30;")
+                              .replace("static int f5(int n) { return n + 5; }\n", "")
+                         + "f5(1);\n";
+    final Interpreted out2 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out2)).hasSize(12);
+    assertThat(out2.interpretedSnippets().get(0).evalResult().events()).hasSize(1);
+    assertThat(out2.interpretedSnippets().get(10).evalResult().events().get(0).value()).isEqualTo("42");
+    assertThat(out2.interpretedSnippets().get(11).evalResult().diagnostics().get(0)).isNotEmpty();
+  }
+
+  @Test
+  public void testShellIsCompactedPastTheChurnThreshold() {
+    final GreedyInterpreter interpreter = new GreedyInterpreter(shellProvider, 2);
+    final Path filePath = Paths.get("testShellIsCompactedPastTheChurnThreshold");
+    final Interpreted out1 = interpret(interpreter, filePath, "int a = 1;\nint b = 2;\n");
+    assertThat(rerunSnippets(out1)).containsExactly(0, 1);
+
+    // each edit drops the previous version of a
+    final Interpreted out2 = interpret(interpreter, filePath, "int a = 2;\nint b = 2;\n");
+    assertThat(rerunSnippets(out2)).containsExactly(0);
+    final Interpreted out3 = interpret(interpreter, filePath, "int a = 3;\nint b = 2;\n");
+    assertThat(rerunSnippets(out3)).containsExactly(0);
+
+    // the threshold is reached: the live snippets are evaluated in a fresh shell
+    final Interpreted out4 = interpret(interpreter, filePath, "int a = 4;\nint b = 2;\n");
+    assertThat(rerunSnippets(out4)).containsExactly(0, 1);
+    assertThat(out4.interpretedSnippets().get(0).evalResult().events().get(0).value()).isEqualTo("4");
+    assertThat(out4.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("2");
+  }
+
+  @Test
+  public void testChangedProjectClassRerunsReferencingSnippets(@TempDir final Path project)
+          throws IOException {
+    final Path classes = project.resolve("target").resolve("classes");
+    compileProjectClass(project, classes, 1);
+    final GreedyInterpreter interpreter =
+            new GreedyInterpreter(new ShellProvider(projectConfiguration(classes)));
+    final Path filePath = Paths.get("testChangedProjectClassRerunsReferencingSnippets");
+    final String edit1 = """
+            int base = 10;
+            int a = demo.Foo.value();
+            int b = 2;
+            """;
+    final Interpreted out1 = interpret(interpreter, filePath, edit1);
+    assertThat(out1.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("1");
+
+    compileProjectClass(project, classes, 2);
+    assertThat(interpreter.reloadClasses(Set.of("demo.Foo"))).containsExactly(filePath);
+    // the new classes are loaded by a fresh shell: only the snippet referencing them is run again
+    final Interpreted out2 = interpret(interpreter, filePath, edit1);
+    assertThat(rerunSnippets(out2)).containsExactly(1);
+    assertThat(out2.interpretedSnippets().get(1).evalResult().events().get(0).value()).isEqualTo("2");
+
+    // base is not in the fresh shell: it is run again before the snippet that reads it
+    final String edit2 = """
+            int base = 10;
+            int a = demo.Foo.value();
+            int b = base + 1;
+            """;
+    final Interpreted out3 = interpret(interpreter, filePath, edit2);
+    assertThat(rerunSnippets(out3)).containsExactly(0, 2);
+    assertThat(out3.interpretedSnippets().get(2).evalResult().events().get(0).value()).isEqualTo("11");
+    interpreter.stop();
+  }
+
+  @Test
+  public void testChangedProjectClassDoesNotRerunUnrelatedNotebook(@TempDir final Path project)
+          throws IOException {
+    final Path classes = project.resolve("target").resolve("classes");
+    compileProjectClass(project, classes, 1);
+    final GreedyInterpreter interpreter =
+            new GreedyInterpreter(new ShellProvider(projectConfiguration(classes)));
+    final Path referencing = Paths.get("testChangedProjectClassReferencingNotebook");
+    final Path unrelated = Paths.get("testChangedProjectClassUnrelatedNotebook");
+    final String unrelatedNotebook = "int b = 2;\nint c = b + 1;\n";
+    interpret(interpreter, referencing, "import demo.Foo;\nint a = Foo.value();\n");
+    interpret(interpreter, unrelated, unrelatedNotebook);
+
+    compileProjectClass(project, classes, 2);
+    assertThat(interpreter.reloadClasses(Set.of("demo.Foo"))).containsExactly(referencing);
+    final Interpreted out = interpret(interpreter, unrelated, unrelatedNotebook);
+    assertThat(rerunSnippets(out)).isEmpty();
+    interpreter.stop();
+  }
+
+  private static Main.SharedConfiguration projectConfiguration(final Path classes) {
+    final Main.SharedConfiguration configuration = new Main.SharedConfiguration();
+    configuration.classPath = classes.toString();
+    configuration.noUtils = true;
+    configuration.localStoragePath = localStorage.toString();
+    return configuration;
+  }
+
+  private static void compileProjectClass(final Path project, final Path classes, final int value)
+          throws IOException {
+    final Path source = project.resolve("Foo.java");
+    Files.writeString(source, """
+            package demo;
+            public class Foo { public static int value() { return %d; } }
+            """.formatted(value));
+    final int exitCode = ToolProvider.getSystemJavaCompiler()
+                                     .run(null, null, null, "-d", classes.toString(),
+                                          source.toString());
+    assertThat(exitCode).isZero();
+  }
+
+  private static Interpreted interpret(final GreedyInterpreter interpreter, final Path filePath,
+                                       final String notebook) {
+    final Interpreted interpreted =
+            interpreter.interpret(staticParser.snippetsOf(filePath, notebook.lines().toList()));
+    assertThat(interpreted.status().isOk()).isTrue();
+    return interpreted;
+  }
+
+  private static List<Integer> rerunSnippets(final Interpreted interpreted) {
+    final List<Integer> rerun = new ArrayList<>();
+    for (int i = 0; i < interpreted.interpretedSnippets().size(); i++) {
+      if (!interpreted.interpretedSnippets().get(i).fromCache()) {
+        rerun.add(i);
+      }
+    }
+    return rerun;
+  }
+
   private static List<Diag> firstDiagnostics(InterpretedSnippet interpretedSnippet) {
     return interpretedSnippet.evalResult()
                              .diagnostics()
@@ -494,6 +946,7 @@ public class GreedyInterpreterTest {
     Main.SharedConfiguration configuration = new Main.SharedConfiguration();
     configuration.classPath = "\"\"";
     configuration.noUtils = true;
+    configuration.localStoragePath = localStorage.toString();
     return new ShellProvider(configuration);
   }
 }
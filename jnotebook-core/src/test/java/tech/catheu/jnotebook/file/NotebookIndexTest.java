@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.file;
+
+import io.methvin.watcher.DirectoryChangeEvent;
+import io.methvin.watcher.hashing.FileHash;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NotebookIndexTest {
+
+  @TempDir
+  Path root;
+
+  @Test
+  public void testListingIsUpdatedFromEvents() throws IOException {
+    Files.writeString(root.resolve("a.jsh"), "");
+    Files.writeString(root.resolve("data.csv"), "");
+    final NotebookIndex index = new NotebookIndex(root, 10);
+    assertThat(index.notebooks()).containsExactly(root.resolve("a.jsh"));
+
+    final Path created = Files.writeString(root.resolve("b.jsh"), "");
+    index.update(event(DirectoryChangeEvent.EventType.CREATE, created));
+    assertThat(index.notebooks()).containsExactly(root.resolve("a.jsh"), created);
+
+    Files.delete(root.resolve("a.jsh"));
+    index.update(event(DirectoryChangeEvent.EventType.DELETE, root.resolve("a.jsh")));
+    assertThat(index.notebooks()).containsExactly(created);
+  }
+
+  @Test
+  public void testListingIsNotRebuiltForUnrelatedEvents() throws IOException {
+    Files.writeString(root.resolve("a.jsh"), "");
+    final NotebookIndex index = new NotebookIndex(root, 10);
+    final List<Path> before = index.notebooks();
+
+    final Path data = Files.writeString(root.resolve("data.csv"), "");
+    index.update(event(DirectoryChangeEvent.EventType.CREATE, data));
+    index.update(event(DirectoryChangeEvent.EventType.MODIFY, root.resolve("a.jsh")));
+    assertThat(index.notebooks()).isSameAs(before);
+  }
+
+  @Test
+  public void testDeletedFolderRemovesItsNotebooks() throws IOException {
+    final Path folder = Files.createDirectories(root.resolve("chapter"));
+    Files.writeString(folder.resolve("a.jsh"), "");
+    Files.writeString(root.resolve("b.jsh"), "");
+    final NotebookIndex index = new NotebookIndex(root, 10);
+    assertThat(index.notebooks()).hasSize(2);
+
+    Files.delete(folder.resolve("a.jsh"));
+    Files.delete(folder);
+    index.update(event(DirectoryChangeEvent.EventType.DELETE, folder));
+    assertThat(index.notebooks()).containsExactly(root.resolve("b.jsh"));
+  }
+
+  private DirectoryChangeEvent event(final DirectoryChangeEvent.EventType type, final Path path) {
+    return new DirectoryChangeEvent(type, false, path, FileHash.fromLong(0), 1, root);
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.jshell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MavenClasspathResolverTest {
+
+  @TempDir
+  Path root;
+
+  @Test
+  public void testClasspathIsResolvedFromTheLocalRepository() throws IOException {
+    final Path repository = root.resolve("repository");
+    artifact(repository, "lib", "parent", "1.0", "pom", """
+            <properties><core.version>1.0</core.version></properties>
+            <dependencyManagement><dependencies>
+              <dependency><groupId>lib</groupId><artifactId>core</artifactId>
+                <version>${core.version}</version></dependency>
+            </dependencies></dependencyManagement>
+            """);
+    artifact(repository, "lib", "bom", "1.0", "pom", """
+            <dependencyManagement><dependencies>
+              <dependency><groupId>lib</groupId><artifactId>util</artifactId>
+                <version>2.0</version></dependency>
+            </dependencies></dependencyManagement>
+            """);
+    artifact(repository, "lib", "core", "1.0", "jar", """
+            <dependencies>
+              <dependency><groupId>lib</groupId><artifactId>util</artifactId>
+                <version>1.0</version></dependency>
+              <dependency><groupId>lib</groupId><artifactId>extra</artifactId>
+                <version>1.0</version><optional>true</optional></dependency>
+              <dependency><groupId>lib</groupId><artifactId>junit</artifactId>
+                <version>1.0</version><scope>test</scope></dependency>
+            </dependencies>
+            """);
+    artifact(repository, "lib", "util", "1.0", "jar", "");
+    artifact(repository, "lib", "util", "2.0", "jar", """
+            <dependencies>
+              <dependency><groupId>lib</groupId><artifactId>logging</artifactId>
+                <version>1.0</version></dependency>
+              <dependency><groupId>lib</groupId><artifactId>old</artifactId>
+                <version>1.0</version></dependency>
+            </dependencies>
+            """);
+    artifact(repository, "lib", "logging", "1.0", "jar", "");
+    final Path project = root.resolve("project");
+    Files.createDirectories(project);
+    Files.writeString(project.resolve("pom.xml"), pom("""
+            <parent><groupId>lib</groupId><artifactId>parent</artifactId><version>1.0</version>
+              <relativePath/></parent>
+            <artifactId>project</artifactId>
+            <dependencyManagement><dependencies>
+              <dependency><groupId>lib</groupId><artifactId>bom</artifactId><version>1.0</version>
+                <type>pom</type><scope>import</scope></dependency>
+            </dependencies></dependencyManagement>
+            <dependencies>
+              <dependency><groupId>lib</groupId><artifactId>core</artifactId>
+                <exclusions><exclusion><groupId>lib</groupId><artifactId>old</artifactId>
+                </exclusion></exclusions>
+              </dependency>
+            </dependencies>
+            """));
+
+    final Optional<String> classpath =
+            new MavenClasspathResolver(repository).resolve(project.resolve("pom.xml"));
+
+    assertThat(classpath).isPresent();
+    assertThat(entries(classpath.get())).containsExactly(
+            project.resolve("target").resolve("classes").toString(),
+            jar(repository, "core", "1.0"),
+            jar(repository, "util", "2.0"),
+            jar(repository, "logging", "1.0"));
+  }
+
+  @Test
+  public void testModulesAreResolvedToTheirClassesFolder() throws IOException {
+    final Path repository = root.resolve("repository");
+    artifact(repository, "lib", "logging", "1.0", "jar", "");
+    final Path project = root.resolve("project");
+    Files.createDirectories(project.resolve("a"));
+    Files.createDirectories(project.resolve("b"));
+    Files.writeString(project.resolve("pom.xml"), pom("""
+            <groupId>demo</groupId><artifactId>parent</artifactId><version>1.0</version>
+            <packaging>pom</packaging>
+            <modules><module>a</module><module>b</module></modules>
+            """));
+    final String parent = """
+            <parent><groupId>demo</groupId><artifactId>parent</artifactId><version>1.0</version>
+            </parent>
+            """;
+    Files.writeString(project.resolve("a").resolve("pom.xml"), pom(parent + """
+            <artifactId>a</artifactId>
+            <dependencies><dependency><groupId>lib</groupId><artifactId>logging</artifactId>
+              <version>1.0</version></dependency></dependencies>
+            """));
+    Files.writeString(project.resolve("b").resolve("pom.xml"), pom(parent + """
+            <artifactId>b</artifactId>
+            <dependencies><dependency><groupId>demo</groupId><artifactId>a</artifactId>
+              <version>${project.version}</version></dependency></dependencies>
+            """));
+
+    final Optional<String> classpath =
+            new MavenClasspathResolver(repository).resolve(project.resolve("pom.xml"));
+
+    assertThat(classpath).isPresent();
+    assertThat(entries(classpath.get())).containsExactly(
+            project.resolve("a").resolve("target").resolve("classes").toString(),
+            jar(repository, "logging", "1.0"),
+            project.resolve("b").resolve("target").resolve("classes").toString());
+  }
+
+  @Test
+  public void testMissingArtifactIsNotResolved() throws IOException {
+    final Path repository = root.resolve("repository");
+    final Path project = root.resolve("project");
+    Files.createDirectories(project);
+    Files.writeString(project.resolve("pom.xml"), pom("""
+            <groupId>demo</groupId><artifactId>project</artifactId><version>1.0</version>
+            <dependencies><dependency><groupId>lib</groupId><artifactId>missing</artifactId>
+              <version>1.0</version></dependency></dependencies>
+            """));
+
+    assertThat(new MavenClasspathResolver(repository).resolve(project.resolve("pom.xml")))
+            .isEmpty();
+  }
+
+  private static void artifact(final Path repository, final String groupId,
+                               final String artifactId, final String version,
+                               final String packaging, final String content)
+          throws IOException {
+    final Path folder = repository.resolve(groupId).resolve(artifactId).resolve(version);
+    Files.createDirectories(folder);
+    Files.writeString(folder.resolve(artifactId + "-" + version + ".pom"), pom("""
+            <groupId>%s</groupId><artifactId>%s</artifactId><version>%s</version>
+            <packaging>%s</packaging>
+            """.formatted(groupId, artifactId, version, packaging) + content));
+    if (packaging.equals("jar")) {
+      Files.createFile(folder.resolve(artifactId + "-" + version + ".jar"));
+    }
+  }
+
+  private static String pom(final String content) {
+    return "<project><modelVersion>4.0.0</modelVersion>\n" + content + "</project>\n";
+  }
+
+  private static String jar(final Path repository, final String artifactId,
+                            final String version) {
+    return repository.resolve("lib")
+                     .resolve(artifactId)
+                     .resolve(version)
+                     .resolve(artifactId + "-" + version + ".jar")
+                     .toString();
+  }
+
+  private static List<String> entries(final String classpath) {
+    return Arrays.asList(classpath.split(File.pathSeparator));
+  }
+}
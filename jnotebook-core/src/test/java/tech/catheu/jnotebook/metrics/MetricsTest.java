@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsTest {
+
+  @Test
+  public void testHistogramBucketsAreCumulative() {
+    final Histogram histogram =
+            Metrics.histogram("test_duration_seconds", "Test durations.", "stage", "test");
+    histogram.observeNanos(500_000);     // 0.5 ms
+    histogram.observeNanos(20_000_000);  // 20 ms
+    histogram.observeNanos(120_000_000_000L); // 2 min
+
+    final String scrape = Metrics.scrape();
+    assertThat(scrape).contains("# TYPE test_duration_seconds histogram\n");
+    assertThat(scrape).contains("test_duration_seconds_bucket{stage=\"test\",le=\"0.001\"} 1\n");
+    assertThat(scrape).contains("test_duration_seconds_bucket{stage=\"test\",le=\"0.025\"} 2\n");
+    assertThat(scrape).contains("test_duration_seconds_bucket{stage=\"test\",le=\"60\"} 2\n");
+    assertThat(scrape).contains("test_duration_seconds_bucket{stage=\"test\",le=\"+Inf\"} 3\n");
+    assertThat(scrape).contains("test_duration_seconds_count{stage=\"test\"} 3\n");
+  }
+
+  @Test
+  public void testCountersWithLabelsShareTheirFamily() {
+    Metrics.counter("test_requests_total", "Test requests.", "result", "hit").add(2);
+    Metrics.counter("test_requests_total", "Test requests.", "result", "miss").increment();
+    Metrics.counter("test_requests_total", "Test requests.", "result", "hit").increment();
+
+    final String scrape = Metrics.scrape();
+    assertThat(scrape.split("# TYPE test_requests_total counter", -1)).hasSize(2);
+    assertThat(scrape).contains("test_requests_total{result=\"hit\"} 3\n");
+    assertThat(scrape).contains("test_requests_total{result=\"miss\"} 1\n");
+  }
+
+  @Test
+  public void testRemovedGaugeIsNotScraped() {
+    Metrics.gauge("test_shell_snippets", "Test snippets.", () -> 3, "notebook", "a.jsh");
+    Metrics.gauge("test_shell_snippets", "Test snippets.", () -> 5, "notebook", "b.jsh");
+    Metrics.removeGauge("test_shell_snippets", "notebook", "a.jsh");
+    Metrics.removeGauge("test_unknown_gauge", "notebook", "a.jsh");
+
+    final String scrape = Metrics.scrape();
+    assertThat(scrape).doesNotContain("test_shell_snippets{notebook=\"a.jsh\"}");
+    assertThat(scrape).contains("test_shell_snippets{notebook=\"b.jsh\"} 5\n");
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.catheu.jnotebook.assets.Asset;
+import tech.catheu.jnotebook.assets.AssetStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AssetBundlerTest {
+
+  private static final String KATEX_FILE_NAME = "0123456789abcdef-" + Asset.KATEX_JS.fileName();
+  private static final String KATEX_CONTENT = "var katex = {};";
+  private static final String HTML = """
+          <!DOCTYPE html><html><head>
+          <script defer data-jnb-lib="katex" data-jnb-asset="KATEX_JS" src="https://cdn/katex.js"
+                  integrity="sha384-abc" crossorigin="anonymous" onload="renderLatex();"></script>
+          </head><body></body></html>
+          """;
+
+  @TempDir
+  Path tempDir;
+  private AssetStore assetStore;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    final Path assetsFolder = tempDir.resolve("storage");
+    Files.createDirectories(assetsFolder);
+    Files.writeString(assetsFolder.resolve(KATEX_FILE_NAME), KATEX_CONTENT);
+    assetStore = new AssetStore(assetsFolder);
+  }
+
+  @Test
+  public void testAssetsAreInlined() {
+    final AssetBundler bundler = new AssetBundler(assetStore, AssetBundler.Mode.INLINE);
+    final Document doc = Jsoup.parse(bundler.bundle(HTML, tempDir.resolve("notebook.html")));
+    final String expectedSrc = "data:text/javascript;base64," + Base64.getEncoder()
+                                                                     .encodeToString(KATEX_CONTENT.getBytes(
+                                                                             StandardCharsets.UTF_8));
+    assertThat(doc.select("script[data-jnb-asset]").eachAttr("src")).containsExactly(expectedSrc);
+    assertThat(doc.select("script[integrity], script[crossorigin]")).isEmpty();
+    // the loading behavior is not changed
+    assertThat(doc.selectFirst("script").hasAttr("defer")).isTrue();
+    assertThat(doc.selectFirst("script").attr("onload")).isEqualTo("renderLatex();");
+  }
+
+  @Test
+  public void testAssetsAreCopiedNextToThePage() throws IOException {
+    final AssetBundler bundler = new AssetBundler(assetStore, AssetBundler.Mode.LOCAL);
+    final Path outputFile = tempDir.resolve("output").resolve("notebook.html");
+    final Document doc = Jsoup.parse(bundler.bundle(HTML, outputFile));
+    assertThat(doc.select("script[data-jnb-asset]").eachAttr("src")).containsExactly(
+            "assets/" + KATEX_FILE_NAME);
+    assertThat(Files.readString(tempDir.resolve("output/assets").resolve(KATEX_FILE_NAME))).isEqualTo(
+            KATEX_CONTENT);
+  }
+
+  @Test
+  public void testCdnModeDoesNotChangeThePage() {
+    final AssetBundler bundler = new AssetBundler(assetStore, AssetBundler.Mode.CDN);
+    assertThat(bundler.bundle(HTML, tempDir.resolve("notebook.html"))).isEqualTo(HTML);
+  }
+}
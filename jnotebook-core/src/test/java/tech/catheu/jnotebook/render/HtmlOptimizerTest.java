@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HtmlOptimizerTest {
+
+  private static final String HEAD = """
+          <head>
+          <link rel="stylesheet" data-jnb-lib="highlight" href="highlight.css">
+          <link rel="stylesheet" data-jnb-lib="katex" href="katex.css">
+          <script data-jnb-lib="highlight" src="highlight.js"></script>
+          <script data-jnb-lib="tocbot" src="tocbot.js"></script>
+          <script data-jnb-lib="katex" src="katex.js"></script>
+          <script data-jnb-lib="vega" src="vega.js"></script>
+          </head>
+          """;
+
+  private final HtmlOptimizer optimizer = new HtmlOptimizer();
+
+  @Test
+  public void testCodeIsHighlighted() {
+    final Document doc = optimize("""
+                                          <div class="cm-content">int a = 1; // one
+                                          String s = "int";</div>
+                                          """);
+    assertThat(doc.select("div.cm-content.hljs")).hasSize(1);
+    assertThat(doc.select(".hljs-type").eachText()).containsExactly("int");
+    assertThat(doc.select(".hljs-number").eachText()).containsExactly("1");
+    assertThat(doc.select(".hljs-comment").eachText()).containsExactly("// one");
+    assertThat(doc.select(".hljs-string").eachText()).containsExactly("\"int\"");
+    // the text is not changed
+    assertThat(doc.selectFirst("div.cm-content").wholeText()).isEqualTo("""
+                                                                           int a = 1; // one
+                                                                           String s = "int";""");
+    // highlight.js is not necessary anymore, its stylesheet is
+    assertThat(doc.select("script[data-jnb-lib=highlight]")).isEmpty();
+    assertThat(doc.select("link[data-jnb-lib=highlight]")).hasSize(1);
+  }
+
+  @Test
+  public void testTableOfContentsIsGenerated() {
+    final Document doc = optimize("""
+                                          <h1 id="title">Title</h1>
+                                          <h2 id="first">First</h2>
+                                          <h3>Detail</h3>
+                                          <h2 id="second">Second</h2>
+                                          """);
+    assertThat(doc.select("#toc > ol > li > a").eachAttr("href")).containsExactly("#title");
+    assertThat(doc.select("#toc > ol > li > ol > li > a").eachAttr("href")).containsExactly(
+            "#first",
+            "#second");
+    final String detailId = doc.selectFirst("#notebook h3").id();
+    assertThat(detailId).isNotEmpty();
+    assertThat(doc.select("#toc > ol > li > ol > li > ol > li > a").eachAttr("href")).containsExactly(
+            "#" + detailId);
+    assertThat(doc.select("script[data-jnb-lib=tocbot]")).isEmpty();
+  }
+
+  @Test
+  public void testUnusedLibrariesAreRemoved() {
+    final Document doc = optimize("""
+                                          <span class="katex">x^2</span>
+                                          """);
+    assertThat(doc.select("[data-jnb-lib=katex]")).hasSize(2);
+    assertThat(doc.select("[data-jnb-lib=vega]")).isEmpty();
+  }
+
+  private Document optimize(final String notebook) {
+    final String html = "<!DOCTYPE html><html>" + HEAD + "<body><div id=\"toc\"></div><div id=\"notebook\">" + notebook + "</div></body></html>";
+    return Jsoup.parse(optimizer.optimize(html));
+  }
+}
@@ -11,7 +11,42 @@
 :;  exit 1
 :;fi
 :;JNOTEBOOK_JAVA_OPTS=${JNOTEBOOK_JAVA_OPTS:-""}
-:;exec java -Dpolyglot.engine.WarnInterpreterOnly=false $JNOTEBOOK_JAVA_OPTS -jar "$0" "$@"
+:;# class data sharing: the classes loaded by a first run are archived when the JVM exits,
+:;# the next runs map the archive instead of loading the classes again.
+:;# The archive is in the local storage, one archive per jar, java version and options.
+:;cds_opts=""
+:;cds_enabled=${JNOTEBOOK_CDS:-true}
+:;case "$JNOTEBOOK_JAVA_OPTS" in *SharedArchiveFile*|*Xshare*) cds_enabled=false ;; esac
+:;if [ "$cds_enabled" = "true" ]; then
+:;  local_storage="$HOME/.jnotebook"
+:;  previous_arg=""
+:;  for arg in "$@"; do
+:;    if [ "$previous_arg" = "--local-storage-path" ]; then
+:;      local_storage="$arg"
+:;    fi
+:;    case "$arg" in --local-storage-path=*) local_storage="${arg#*=}" ;; esac
+:;    previous_arg="$arg"
+:;  done
+:;  # an archive is named jnotebook-<jar location>-<options>-<jar build and java version>:
+:;  # it is outdated when the jar at the same location is replaced or java is upgraded
+:;  jar_id=$(printf '%s' "$0" | cksum | awk '{print $1}')
+:;  opts_id=$(printf '%s' "$JNOTEBOOK_JAVA_OPTS" | cksum | awk '{print $1}')
+:;  build_id=$(printf '%s' "$(ls -ln "$0") $java_version" | cksum | awk '{print $1}')
+:;  cds_prefix="jnotebook-$jar_id-$opts_id"
+:;  cds_dir="$local_storage/cds"
+:;  cds_archive="$cds_dir/$cds_prefix-$build_id.jsa"
+:;  if [ -f "$cds_archive" ]; then
+:;    cds_opts="-XX:SharedArchiveFile=$cds_archive"
+:;  elif mkdir -p "$cds_dir" 2>/dev/null; then
+:;    # archives of previous builds of this jar, or of previous java versions, are not used anymore.
+:;    # Archives of other jars or options are kept.
+:;    rm -f "$cds_dir/$cds_prefix"-*.jsa
+:;    cds_opts="-XX:ArchiveClassesAtExit=$cds_archive"
+:;  fi
+:;  # an archive that cannot be used is ignored - do not print the warnings
+:;  cds_opts="$cds_opts -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off"
+:;fi
+:;exec java -Dpolyglot.engine.WarnInterpreterOnly=false $cds_opts $JNOTEBOOK_JAVA_OPTS -jar "$0" "$@"
 
 :; # support for windows is limited - no checks are performed
 @echo off
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import j2html.rendering.HtmlBuilder;
+import j2html.tags.DomContent;
+import j2html.tags.specialized.TrTag;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static j2html.TagCreator.*;
+
+/**
+ * Microbenchmark runner, in the spirit of JMH. Create one with {@link Nb#bench()}.
+ * <pre>
+ * Nb.bench()
+ *   .add("poor init", () -> fill(new ArrayList<>()))
+ *   .add("good init", () -> fill(new ArrayList<>(1000)))
+ *   .run();
+ * </pre>
+ * Each benchmark runs warmup iterations, then measurement iterations. The score is the average time
+ * per operation, with the error at 99.9% confidence. Percentiles are computed on batches of
+ * operations.
+ * Forks run in the notebook JVM: a fork restarts warmup and measurement, but does not reset the JIT
+ * profile. For results isolated from the notebook, use JMH.
+ */
+public class Bench {
+
+  // batches must be long enough to make the System.nanoTime() cost and granularity negligible
+  private static final long TARGET_BATCH_NANOS = 10_000;
+  private static final int MAX_BATCH_SIZE = 1 << 20;
+  private static final int MAX_SAMPLES = 10_000;
+
+  private final Map<String, Consumer<Blackhole>> benchmarks = new LinkedHashMap<>();
+  private int forks = 1;
+  private int warmupIterations = 5;
+  private int measurementIterations = 10;
+  private Duration iterationTime = Duration.ofMillis(200);
+  private TimeUnit timeUnit = null;
+
+  Bench() {
+  }
+
+  public Bench add(final String name, final Runnable runnable) {
+    return add(name, blackhole -> runnable.run());
+  }
+
+  /**
+   * Benchmarks the supplier. The returned value is consumed by a {@link Blackhole}.
+   */
+  public Bench add(final String name, final Supplier<?> supplier) {
+    return add(name, blackhole -> blackhole.consume(supplier.get()));
+  }
+
+  public Bench add(final String name, final Consumer<Blackhole> benchmark) {
+    if (benchmarks.containsKey(name)) {
+      throw new IllegalArgumentException(String.format("Duplicate benchmark name: %s",
+                                                       name));
+    }
+    benchmarks.put(name, benchmark);
+    return this;
+  }
+
+  public Bench forks(final int forks) {
+    checkPositive("forks", forks);
+    this.forks = forks;
+    return this;
+  }
+
+  public Bench warmupIterations(final int warmupIterations) {
+    if (warmupIterations < 0) {
+      throw new IllegalArgumentException(String.format(
+              "Invalid warmupIterations value: %s. warmupIterations must be positive or zero",
+              warmupIterations));
+    }
+    this.warmupIterations = warmupIterations;
+    return this;
+  }
+
+  public Bench iterations(final int measurementIterations) {
+    checkPositive("iterations", measurementIterations);
+    this.measurementIterations = measurementIterations;
+    return this;
+  }
+
+  public Bench iterationTime(final Duration iterationTime) {
+    checkPositive("iterationTime", iterationTime.toNanos());
+    this.iterationTime = iterationTime;
+    return this;
+  }
+
+  /**
+   * Unit of the reported scores. By default, the unit is chosen based on the fastest benchmark.
+   */
+  public Bench timeUnit(final TimeUnit timeUnit) {
+    this.timeUnit = timeUnit;
+    return this;
+  }
+
+  public Report run() {
+    if (benchmarks.isEmpty()) {
+      throw new IllegalStateException(
+              "No benchmark to run. Add benchmarks with add(name, runnable)");
+    }
+    final List<Result> results = new ArrayList<>(benchmarks.size());
+    benchmarks.forEach((name, benchmark) -> results.add(measure(name, benchmark)));
+    return new Report(results, timeUnit != null ? timeUnit : defaultUnit(results));
+  }
+
+  private Result measure(final String name, final Consumer<Blackhole> benchmark) {
+    final Blackhole blackhole = new Blackhole();
+    final double[] scores = new double[forks * measurementIterations];
+    final Reservoir samples = new Reservoir(MAX_SAMPLES);
+    int scoreIdx = 0;
+    for (int fork = 0; fork < forks; fork++) {
+      // start each fork from a clean heap
+      System.gc();
+      final int batchSize = batchSize(benchmark, blackhole);
+      for (int i = 0; i < warmupIterations; i++) {
+        runIteration(benchmark, blackhole, batchSize, null);
+      }
+      for (int i = 0; i < measurementIterations; i++) {
+        scores[scoreIdx++] = runIteration(benchmark, blackhole, batchSize, samples);
+      }
+    }
+    return Result.of(name, scores, samples.sorted());
+  }
+
+  private static int batchSize(final Consumer<Blackhole> benchmark,
+                               final Blackhole blackhole) {
+    int batchSize = 1;
+    while (batchSize < MAX_BATCH_SIZE) {
+      final long start = System.nanoTime();
+      for (int i = 0; i < batchSize; i++) {
+        benchmark.accept(blackhole);
+      }
+      if (System.nanoTime() - start >= TARGET_BATCH_NANOS) {
+        break;
+      }
+      batchSize <<= 1;
+    }
+    return batchSize;
+  }
+
+  /**
+   * Returns the average time per operation in nanoseconds.
+   */
+  private double runIteration(final Consumer<Blackhole> benchmark,
+                              final Blackhole blackhole, final int batchSize,
+                              final Reservoir samples) {
+    final long end = System.nanoTime() + iterationTime.toNanos();
+    long elapsed = 0;
+    long operations = 0;
+    long now;
+    do {
+      final long start = System.nanoTime();
+      for (int i = 0; i < batchSize; i++) {
+        benchmark.accept(blackhole);
+      }
+      now = System.nanoTime();
+      final long batchNanos = now - start;
+      elapsed += batchNanos;
+      operations += batchSize;
+      if (samples != null) {
+        samples.add((double) batchNanos / batchSize);
+      }
+    } while (now < end);
+    return (double) elapsed / operations;
+  }
+
+  private static TimeUnit defaultUnit(final List<Result> results) {
+    final double fastest =
+            results.stream().mapToDouble(Result::meanNanos).min().orElse(0);
+    for (final TimeUnit unit : List.of(TimeUnit.SECONDS,
+                                       TimeUnit.MILLISECONDS,
+                                       TimeUnit.MICROSECONDS)) {
+      if (fastest >= unit.toNanos(1)) {
+        return unit;
+      }
+    }
+    return TimeUnit.NANOSECONDS;
+  }
+
+  private static void checkPositive(final String name, final long value) {
+    if (value < 1) {
+      throw new IllegalArgumentException(String.format(
+              "Invalid %s value: %s. %s must be strictly positive",
+              name,
+              value,
+              name));
+    }
+  }
+
+  /**
+   * Statistics of a benchmark. All times are in nanoseconds per operation.
+   *
+   * @param errorNanos half-width of the 99.9% confidence interval of the mean
+   */
+  public record Result(String name, int iterations, double meanNanos, double errorNanos,
+                       double p50Nanos, double p90Nanos, double p99Nanos) {
+
+    // two-sided 99.9% student t quantiles, by degrees of freedom
+    private static final double[] T_999 =
+            {Double.NaN, 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+
+    private static Result of(final String name, final double[] scores,
+                             final double[] sortedSamples) {
+      final int n = scores.length;
+      final double mean = Arrays.stream(scores).average().orElse(Double.NaN);
+      double error = Double.NaN;
+      if (n > 1) {
+        double squares = 0;
+        for (final double score : scores) {
+          squares += (score - mean) * (score - mean);
+        }
+        final double stdDev = Math.sqrt(squares / (n - 1));
+        error = tQuantile(n - 1) * stdDev / Math.sqrt(n);
+      }
+      return new Result(name,
+                        n,
+                        mean,
+                        error,
+                        percentile(sortedSamples, 0.5),
+                        percentile(sortedSamples, 0.9),
+                        percentile(sortedSamples, 0.99));
+    }
+
+    private static double tQuantile(final int degreesOfFreedom) {
+      if (degreesOfFreedom < T_999.length) {
+        return T_999[degreesOfFreedom];
+      }
+      // conservative: use the quantile of the closest lower tabulated degree of freedom
+      if (degreesOfFreedom < 40) {
+        return T_999[T_999.length - 1];
+      } else if (degreesOfFreedom < 60) {
+        return 3.551;
+      } else if (degreesOfFreedom < 120) {
+        return 3.460;
+      } else {
+        return 3.373;
+      }
+    }
+
+    private static double percentile(final double[] sorted, final double rank) {
+      if (sorted.length == 0) {
+        return Double.NaN;
+      }
+      final int idx = (int) Math.ceil(rank * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+  }
+
+  /**
+   * Results of a {@link Bench} run. Renders as a comparison table and a chart.
+   */
+  public static class Report extends DomContent {
+    private final List<Result> results;
+    private final TimeUnit unit;
+    private DomContent html;
+
+    private Report(final List<Result> results, final TimeUnit unit) {
+      this.results = List.copyOf(results);
+      this.unit = unit;
+    }
+
+    public List<Result> results() {
+      return results;
+    }
+
+    @Override
+    public <T extends Appendable> T render(final HtmlBuilder<T> builder,
+                                           final Object model) throws IOException {
+      return html().render(builder, model);
+    }
+
+    private DomContent html() {
+      if (html == null) {
+        html = Nb.row(comparisonTable(), comparisonChart());
+      }
+      return html;
+    }
+
+    private DomContent comparisonTable() {
+      final String unitLabel = unitLabel();
+      final List<String> headers =
+              List.of("Benchmark", "Cnt", "Score", "Error", "p50", "p90", "p99", "Units");
+      return div(table(thead(tr(each(headers, h -> th(h).withClasses("px-2", "text-left")))),
+                       tbody(each(results, r -> row(r, unitLabel))))).withClasses(
+              "overflow-x-auto");
+    }
+
+    private TrTag row(final Result r, final String unitLabel) {
+      return tr(td(r.name()).withClasses("px-2"),
+                td(String.valueOf(r.iterations())).withClasses("px-2", "text-right"),
+                td(format(r.meanNanos())).withClasses("px-2", "text-right"),
+                td("\u00b1 " + format(r.errorNanos())).withClasses("px-2", "text-right"),
+                td(format(r.p50Nanos())).withClasses("px-2", "text-right"),
+                td(format(r.p90Nanos())).withClasses("px-2", "text-right"),
+                td(format(r.p99Nanos())).withClasses("px-2", "text-right"),
+                td(unitLabel).withClasses("px-2"));
+    }
+
+    private DomContent comparisonChart() {
+      final String unitLabel = unitLabel();
+      final List<Map<String, Object>> values = new ArrayList<>();
+      for (final Result r : results) {
+        final double error = Double.isNaN(r.errorNanos()) ? 0 : r.errorNanos();
+        values.add(Map.of("benchmark",
+                          r.name(),
+                          "score",
+                          convert(r.meanNanos()),
+                          "low",
+                          convert(r.meanNanos() - error),
+                          "high",
+                          convert(r.meanNanos() + error)));
+      }
+      final Map<String, Object> y =
+              Map.of("field", "benchmark", "type", "nominal", "sort",
+                     JSONObject.NULL,
+                     "title",
+                     JSONObject.NULL);
+      return Nb.vega(Map.of("data",
+                            Map.of("values", values),
+                            "layer",
+                            List.of(Map.of("mark",
+                                           "bar",
+                                           "encoding",
+                                           Map.of("y",
+                                                  y,
+                                                  "x",
+                                                  Map.of("field",
+                                                         "score",
+                                                         "type",
+                                                         "quantitative",
+                                                         "title",
+                                                         unitLabel))),
+                                    Map.of("mark",
+                                           "rule",
+                                           "encoding",
+                                           Map.of("y",
+                                                  y,
+                                                  "x",
+                                                  Map.of("field",
+                                                         "low",
+                                                         "type",
+                                                         "quantitative"),
+                                                  "x2",
+                                                  Map.of("field", "high"))))));
+    }
+
+    private double convert(final double nanos) {
+      return nanos / unit.toNanos(1);
+    }
+
+    private String format(final double nanos) {
+      return String.format(Locale.ENGLISH, "%.3f", convert(nanos));
+    }
+
+    private String unitLabel() {
+      return switch (unit) {
+        case NANOSECONDS -> "ns/op";
+        case MICROSECONDS -> "us/op";
+        case MILLISECONDS -> "ms/op";
+        case SECONDS -> "s/op";
+        case MINUTES -> "min/op";
+        case HOURS -> "h/op";
+        case DAYS -> "d/op";
+      };
+    }
+  }
+
+  /**
+   * Uniform sample of a stream of values, with a fixed memory footprint.
+   */
+  private static class Reservoir {
+    private final double[] values;
+    private long count = 0;
+
+    private Reservoir(final int capacity) {
+      this.values = new double[capacity];
+    }
+
+    private void add(final double value) {
+      if (count < values.length) {
+        values[(int) count] = value;
+      } else {
+        final long idx = ThreadLocalRandom.current().nextLong(count + 1);
+        if (idx < values.length) {
+          values[(int) idx] = value;
+        }
+      }
+      count++;
+    }
+
+    private double[] sorted() {
+      final double[] res = Arrays.copyOf(values, (int) Math.min(count, values.length));
+      Arrays.sort(res);
+      return res;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+/**
+ * Consumes values produced by a benchmark, so that the JIT cannot eliminate the code computing them.
+ * Same approach as the JMH blackhole: the value is compared to a field the JIT cannot predict, and
+ * is rarely stored.
+ */
+public final class Blackhole {
+
+  // only written by the benchmark thread but the JIT must not assume it is constant
+  private volatile int tlrMask = 1;
+  private int tlr = (int) System.nanoTime();
+  private Object stored;
+
+  Blackhole() {
+  }
+
+  public void consume(final Object obj) {
+    final int mask = tlrMask;
+    final int next = (tlr = tlr * 1664525 + 1013904223);
+    if ((next & mask) == 0) {
+      // rarely store the object - the mask grows to keep stores infrequent
+      stored = obj;
+      tlrMask = (mask << 1) + 1;
+    }
+  }
+
+  public void consume(final long value) {
+    // the comparison depends on the value - it has to be computed
+    if (value == (tlr = tlr * 1664525 + 1013904223)) {
+      stored = value;
+    }
+  }
+
+  public void consume(final double value) {
+    if (value == (tlr = tlr * 1664525 + 1013904223)) {
+      stored = value;
+    }
+  }
+}
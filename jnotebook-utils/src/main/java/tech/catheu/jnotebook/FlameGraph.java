@@ -7,102 +7,264 @@
  */
 package tech.catheu.jnotebook;
 
+import jdk.jfr.Event;
+import jdk.jfr.EventSettings;
+import jdk.jfr.Name;
 import jdk.jfr.consumer.RecordedEvent;
 import jdk.jfr.consumer.RecordedFrame;
 import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
 import jdk.jfr.consumer.RecordingFile;
+import jdk.jfr.consumer.RecordingStream;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
-// totally inefficient way to transform jfr logs into d3 format
-// some pieces extracted from https://github.com/billybong/JavaFlames and https://github.com/spiermar/node-stack-convert
+// single pass transformation of jfr logs into the d3 flame graph format
+// stack frames are interned and aggregated directly into a trie: no collapsed stack string is built
+// output format from https://github.com/spiermar/d3-flame-graph
 class FlameGraph {
 
-  private FlameGraph() {
+  // the stream is flushed every second: the end marker is received well before
+  private static final long END_MARKER_TIMEOUT_SECONDS = 30;
+
+  private final ProfilingMode mode;
+  private final Node root = new Node("ALL");
+  // RecordedMethod instances are shared between events of a same chunk - most lookups hit this cache
+  private final Map<RecordedMethod, String> methodToFrame = new IdentityHashMap<>();
+  private final Map<String, String> internedFrames = new HashMap<>();
+
+  FlameGraph(final ProfilingMode mode) {
+    this.mode = mode;
   }
 
-  public static Map<String, Object> flameGraphD3(final Stream<String> flameGraphLog) {
-    Node root = new Node("ALL");
-    flameGraphLog.forEach(val -> {
-      final String[] countSplit = val.split(" ");
-      final var stackSplit = countSplit[0].split(";");
-      root.add(new ArrayList<>(List.of(stackSplit)),
-               Integer.parseInt(countSplit[1].strip()));
-    });
+  public static Map<String, Object> flameGraphD3(final Path jfrRecording) {
+    return flameGraphD3(jfrRecording, ProfilingMode.CPU);
+  }
 
-    return root.serialize();
+  public static Map<String, Object> flameGraphD3(final Path jfrRecording,
+                                                 final ProfilingMode mode) {
+    return read(jfrRecording, mode).toD3();
   }
 
-  public static Stream<String> flameGraphLog(final Path jfrRecording) {
+  public static Map<String, Object> flameGraphD3(final Runnable runnable,
+                                                 final ProfilingMode mode) {
+    return record(runnable, mode).toD3();
+  }
+
+  static FlameGraph read(final Path jfrRecording, final ProfilingMode mode) {
+    final FlameGraph flameGraph = new FlameGraph(mode);
     try (final RecordingFile recordingFile = new RecordingFile(jfrRecording)) {
-      final Map<String, Integer> counts = new HashMap<>();
       while (recordingFile.hasMoreEvents()) {
-        final RecordedEvent event = recordingFile.readEvent();
-        if ("jdk.ExecutionSample".equalsIgnoreCase(event.getEventType().getName())) {
-          final String collapsedFrames =
-                  collapseFrames(event.getStackTrace().getFrames());
-          counts.merge(collapsedFrames, 1, Integer::sum);
-        }
+        flameGraph.add(recordingFile.readEvent());
       }
-      return counts.entrySet()
-                   .stream()
-                   .map(e -> "%s %d\n".formatted(e.getKey(), e.getValue()));
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    return flameGraph;
+  }
+
+  /**
+   * Profiles the runnable with a jfr stream and aggregates the events in memory while it runs.
+   * No recording is written in the working directory.
+   */
+  static FlameGraph record(final Runnable runnable, final ProfilingMode mode) {
+    final FlameGraph flameGraph = new FlameGraph(mode);
+    final CountDownLatch endReached = new CountDownLatch(1);
+    final AtomicReference<Throwable> streamError = new AtomicReference<>();
+    try (final RecordingStream stream = new RecordingStream()) {
+      mode.eventSettings().forEach((eventName, settings) -> {
+        final EventSettings eventSettings = stream.enable(eventName);
+        settings.forEach(eventSettings::with);
+      });
+      stream.enable(EndMarker.NAME);
+      // events are dispatched in the stream thread, in timestamp order
+      stream.onEvent(event -> {
+        if (EndMarker.NAME.equals(event.getEventType().getName())) {
+          endReached.countDown();
+        } else {
+          flameGraph.add(event);
+        }
+      });
+      stream.onError(e -> {
+        streamError.set(e);
+        endReached.countDown();
+      });
+      stream.startAsync();
+      try {
+        runnable.run();
+      } finally {
+        // RecordingStream#stop is not available in java 17 - closing the stream drops the events
+        // that are not flushed yet. Wait for a marker event committed after the run instead.
+        new EndMarker().commit();
+      }
+      if (!endReached.await(END_MARKER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new IllegalStateException(String.format(
+                "Profiling failed: the end of the profile was not received from the jfr stream "
+                + "after %s seconds. The flame graph would be incomplete.",
+                END_MARKER_TIMEOUT_SECONDS));
+      }
+      if (streamError.get() != null) {
+        throw new IllegalStateException("Profiling failed: error in the jfr stream.",
+                                        streamError.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    return flameGraph;
+  }
+
+  public void add(final RecordedEvent event) {
+    if (!mode.records(event)) {
+      return;
+    }
+    final RecordedStackTrace stackTrace = event.getStackTrace();
+    if (stackTrace == null) {
+      return;
+    }
+    final long weight = mode.weightOf(event);
+    // jfr frames are ordered from the top of the stack to the bottom - walk them in reverse
+    final List<RecordedFrame> frames = stackTrace.getFrames();
+    Node current = root;
+    current.value += weight;
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      current = current.child(frameName(frames.get(i)));
+      current.value += weight;
+    }
+  }
+
+  public Map<String, Object> toD3() {
+    return root.serialize();
+  }
+
+  /**
+   * Returns the differential flame graph of after compared to before, in the d3 flame graph format.
+   * Frame widths are the ones of after. The delta of each frame is the change of its share of
+   * the total, between -1 and 1: a positive delta means the frame takes a bigger part of the profile.
+   * Frames that only exist in before are not drawn: their disappearance shows as a negative delta
+   * of their parent.
+   */
+  public static Map<String, Object> differentialD3(final FlameGraph before,
+                                                   final FlameGraph after) {
+    return Node.diff(before.root, after.root, before.root.value, after.root.value);
   }
 
-  private static String collapseFrames(List<RecordedFrame> frames) {
-    var methodNames = new ArrayDeque<String>(frames.size());
-    for (var frame : frames) {
-      final RecordedMethod method = frame.getMethod();
-      methodNames.addFirst("%s::%s".formatted(method.getType().getName(),
-                                              method.getName()));
+  private String frameName(final RecordedFrame frame) {
+    final RecordedMethod method = frame.getMethod();
+    String name = methodToFrame.get(method);
+    if (name == null) {
+      final String candidate = method.getType().getName() + "::" + method.getName();
+      name = internedFrames.computeIfAbsent(candidate, k -> k);
+      methodToFrame.put(method, name);
     }
-    return String.join(";", methodNames);
+    return name;
+  }
+
+  @Name(EndMarker.NAME)
+  static class EndMarker extends Event {
+    static final String NAME = "tech.catheu.jnotebook.ProfileEnd";
   }
 
   private static class Node {
-    String name;
-    int value;
+    private static final Pattern LAMBDA_CLASS = Pattern.compile("\\$\\$Lambda\\$[^:]*");
+    private static final Pattern LAMBDA_IMPL = Pattern.compile("lambda\\$(\\w+?)\\$\\d+$");
+
+    final String name;
+    long value;
+    // most nodes have a single child - allocate the map lazily
     Map<String, Node> children;
 
-    public Node(String name) {
+    Node(String name) {
       this.name = name;
       this.value = 0;
-      this.children = new HashMap<>();
     }
 
-    public void add(List<String> frames, int value) {
-      this.value += value;
-      if (frames != null && !frames.isEmpty()) {
-        String head = frames.get(0);
-        Node child = this.children.get(head);
-        if (child == null) {
-          child = new Node(head);
-          this.children.put(head, child);
+    Node child(final String childName) {
+      if (children == null) {
+        children = new HashMap<>(4);
+      }
+      Node child = children.get(childName);
+      if (child == null) {
+        child = new Node(childName);
+        children.put(childName, child);
+      }
+      return child;
+    }
+
+    static Map<String, Object> diff(final Node before, final Node after,
+                                    final long beforeTotal, final long afterTotal) {
+      final Map<String, Object> res = new HashMap<>(4);
+      res.put("name", after.name);
+      res.put("value", after.value);
+      final long beforeValue = before == null ? 0 : before.value;
+      res.put("delta", share(after.value, afterTotal) - share(beforeValue, beforeTotal));
+      if (after.children != null && !after.children.isEmpty()) {
+        final Map<String, Node> beforeChildren = childrenByDiffKey(before);
+        final List<Map<String, Object>> serializedChildren =
+                new ArrayList<>(after.children.size());
+        for (Node child : after.children.values()) {
+          serializedChildren.add(diff(beforeChildren.get(diffKey(child.name)),
+                                      child,
+                                      beforeTotal,
+                                      afterTotal));
         }
-        frames.remove(0);
-        child.add(frames, value);
+        res.put("children", serializedChildren);
       }
+      return res;
+    }
+
+    private static Map<String, Node> childrenByDiffKey(final Node node) {
+      if (node == null || node.children == null) {
+        return Map.of();
+      }
+      final Map<String, Node> res = new HashMap<>(node.children.size());
+      for (final Node child : node.children.values()) {
+        res.merge(diffKey(child.name), child, Node::merge);
+      }
+      return res;
     }
 
-    public Map<String, Object> serialize() {
-      final Map<String, Object> res = new HashMap<>();
+    // lambdas get a different generated name in each profile - compare them by enclosing method
+    private static String diffKey(final String frameName) {
+      return LAMBDA_IMPL.matcher(LAMBDA_CLASS.matcher(frameName).replaceFirst("\\$\\$Lambda"))
+                        .replaceFirst("lambda\\$$1");
+    }
+
+    private static Node merge(final Node left, final Node right) {
+      final Node res = new Node(left.name);
+      res.value = left.value + right.value;
+      res.children = new HashMap<>(4);
+      for (final Node node : List.of(left, right)) {
+        if (node.children != null) {
+          node.children.values().forEach(c -> res.children.merge(c.name, c, Node::merge));
+        }
+      }
+      return res;
+    }
+
+    private static double share(final long value, final long total) {
+      return total == 0 ? 0 : (double) value / total;
+    }
+
+    Map<String, Object> serialize() {
+      final Map<String, Object> res = new HashMap<>(4);
       res.put("name", this.name);
       res.put("value", this.value);
-      List<Map<String, Object>> children = new ArrayList<>();
-      for (Node child : this.children.values()) {
-        children.add(child.serialize());
-      }
-      if (!children.isEmpty()) {
-        res.put("children", children);
+      if (children != null && !children.isEmpty()) {
+        final List<Map<String, Object>> serializedChildren =
+                new ArrayList<>(children.size());
+        for (Node child : children.values()) {
+          serializedChildren.add(child.serialize());
+        }
+        res.put("children", serializedChildren);
       }
       return res;
     }
   }
-
 }
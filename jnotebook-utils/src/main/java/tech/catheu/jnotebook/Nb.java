@@ -15,8 +15,10 @@ import org.json.JSONObject;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServerConnection;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
@@ -27,7 +29,6 @@ import java.util.Map;
 
 import static j2html.TagCreator.*;
 import static tech.catheu.jnotebook.FlameGraph.flameGraphD3;
-import static tech.catheu.jnotebook.FlameGraph.flameGraphLog;
 
 public class Nb {
 
@@ -98,12 +99,23 @@ public class Nb {
     return div(rawHtml(obj.toString()));
   }
 
+  /**
+   * Returns a microbenchmark runner. Add benchmarks with {@link Bench#add(String, Runnable)}, then
+   * call {@link Bench#run()} to get the results table and chart.
+   */
+  public static Bench bench() {
+    return new Bench();
+  }
+
   public static Path profile(final Runnable runnable) {
+    return profile(runnable, ProfilingMode.CPU);
+  }
+
+  public static Path profile(final Runnable runnable, final ProfilingMode mode) {
     MBeanServerConnection mBeanServer = ManagementFactory.getPlatformMBeanServer();
     RecordingOptions recordingOptions =
             new RecordingOptions.Builder().disk("true").build();
-    RecordingConfiguration recordingConfiguration =
-            RecordingConfiguration.PROFILE_CONFIGURATION;
+    RecordingConfiguration recordingConfiguration = recordingConfiguration(mode);
 
     final String filename =
             "notebook-profile-" + DATE_TIME_FORMATTER.format(LocalDateTime.now()) + ".jfr";
@@ -115,6 +127,15 @@ public class Nb {
                    savePath);
   }
 
+  private static RecordingConfiguration recordingConfiguration(final ProfilingMode mode) {
+    if (mode == ProfilingMode.CPU) {
+      // keep all the events of the profile configuration - the recording can be opened in JMC
+      return RecordingConfiguration.PROFILE_CONFIGURATION;
+    }
+    final byte[] jfc = mode.jfc().getBytes(StandardCharsets.UTF_8);
+    return new RecordingConfiguration.JfcFileConfiguration(new ByteArrayInputStream(jfc));
+  }
+
   public static Path profile(final Runnable runnable,
                              final MBeanServerConnection mBeanServer,
                              final RecordingOptions recordingOptions,
@@ -138,7 +159,64 @@ public class Nb {
   }
 
   public static DomContent flame(final Path path) {
-    final Map<String, Object> profile = flameGraphD3(flameGraphLog(path));
+    return flame(path, ProfilingMode.CPU);
+  }
+
+  public static DomContent flame(final Path path, final ProfilingMode mode) {
+    return flame(flameGraphD3(path, mode));
+  }
+
+  /**
+   * Profiles the runnable and returns its flame graph. The profile is aggregated in memory: no jfr
+   * file is written. Use {@link #profile(Runnable)} to keep the recording.
+   */
+  public static DomContent flame(final Runnable runnable) {
+    return flame(runnable, ProfilingMode.CPU);
+  }
+
+  public static DomContent flame(final Runnable runnable, final ProfilingMode mode) {
+    return flame(flameGraphD3(new ProfiledRunnable(runnable), mode));
+  }
+
+  /**
+   * Returns a differential flame graph of two profiles. Frame widths are the ones of after. A frame is
+   * red when its share of the profile grows from before to after, blue when it shrinks.
+   */
+  public static DomContent flameDiff(final Path before, final Path after) {
+    return flameDiff(before, after, ProfilingMode.CPU);
+  }
+
+  public static DomContent flameDiff(final Path before, final Path after,
+                                     final ProfilingMode mode) {
+    return flameDiff(FlameGraph.differentialD3(FlameGraph.read(before, mode),
+                                               FlameGraph.read(after, mode)));
+  }
+
+  /**
+   * Profiles the two runnables in memory and returns their differential flame graph.
+   * See {@link #flameDiff(Path, Path)}.
+   */
+  public static DomContent flameDiff(final Runnable before, final Runnable after) {
+    return flameDiff(before, after, ProfilingMode.CPU);
+  }
+
+  public static DomContent flameDiff(final Runnable before, final Runnable after,
+                                     final ProfilingMode mode) {
+    return flameDiff(FlameGraph.differentialD3(FlameGraph.record(new ProfiledRunnable(before),
+                                                                 mode),
+                                               FlameGraph.record(new ProfiledRunnable(after),
+                                                                 mode)));
+  }
+
+  private static DomContent flameDiff(final Map<String, Object> differentialProfile) {
+    final JSONObject jsonProfile = new JSONObject(differentialProfile);
+    final DivTag chartContainer = div().withClasses("flame")
+                                       .withData("profile", jsonProfile.toString())
+                                       .withData("differential", "true");
+    return div(chartContainer).withClasses("overflow-x-auto");
+  }
+
+  private static DomContent flame(final Map<String, Object> profile) {
     final JSONObject jsonProfile = new JSONObject(profile);
 
     final DivTag chartContainer =
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Cyril de Catheu
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+package tech.catheu.jnotebook;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * What {@link Nb#profile(Runnable, ProfilingMode)} records, and how {@link Nb#flame(java.nio.file.Path, ProfilingMode)} weights stacks.
+ */
+public enum ProfilingMode {
+  /**
+   * Cpu samples. Stacks are weighted by sample count.
+   */
+  CPU(Map.of("jdk.ExecutionSample", Map.of("enabled", "true", "period", "10 ms")),
+      event -> 1),
+  /**
+   * Sampled allocations. Stacks are weighted by the estimated allocated bytes.
+   */
+  ALLOCATION(Map.of("jdk.ObjectAllocationSample",
+                    Map.of("enabled", "true", "throttle", "1000/s", "stackTrace", "true")),
+             event -> event.getLong("weight")),
+  /**
+   * Contended monitor enters and thread parking longer than 1 ms. Stacks are weighted by the
+   * blocked time in nanoseconds. Parking is recorded for all threads, this includes idle thread pools.
+   */
+  LOCK(Map.of("jdk.JavaMonitorEnter",
+              Map.of("enabled", "true", "threshold", "1 ms", "stackTrace", "true"),
+              "jdk.ThreadPark",
+              Map.of("enabled", "true", "threshold", "1 ms", "stackTrace", "true")),
+       event -> event.getDuration().toNanos());
+
+  private final Map<String, Map<String, String>> eventSettings;
+  private final ToLongFunction<RecordedEvent> weight;
+
+  ProfilingMode(final Map<String, Map<String, String>> eventSettings,
+                final ToLongFunction<RecordedEvent> weight) {
+    this.eventSettings = eventSettings;
+    this.weight = weight;
+  }
+
+  /**
+   * Returns the jfr settings of each recorded event, by event name.
+   */
+  public Map<String, Map<String, String>> eventSettings() {
+    return eventSettings;
+  }
+
+  public boolean records(final RecordedEvent event) {
+    return eventSettings.containsKey(event.getEventType().getName());
+  }
+
+  public long weightOf(final RecordedEvent event) {
+    return weight.applyAsLong(event);
+  }
+
+  /**
+   * Returns a jfc configuration that only enables the events of this mode.
+   */
+  public String jfc() {
+    final StringBuilder jfc = new StringBuilder("""
+            <?xml version="1.0" encoding="UTF-8"?>
+            <configuration version="2.0" label="jnotebook %s">
+            """.formatted(name()));
+    eventSettings.forEach((event, settings) -> {
+      jfc.append("  <event name=\"").append(event).append("\">\n");
+      settings.forEach((setting, value) -> jfc.append("    <setting name=\"")
+                                              .append(setting)
+                                              .append("\">")
+                                              .append(value)
+                                              .append("</setting>\n"));
+      jfc.append("  </event>\n");
+    });
+    return jfc.append("</configuration>\n").toString();
+  }
+}